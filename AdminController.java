@@ -1,7 +1,12 @@
 package com.lhy.music.controller;
 
+import cn.hutool.core.util.StrUtil;
+import com.lhy.music.cache.EntityCache;
 import com.lhy.music.common.R;
+import com.lhy.music.entity.po.Admin;
+import com.lhy.music.entity.vo.CacheStatsVo;
 import com.lhy.music.service.AdminService;
+import com.lhy.music.utils.PasswordUtils;
 import lombok.RequiredArgsConstructor;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -10,6 +15,8 @@ import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.servlet.ModelAndView;
 
 import javax.servlet.http.HttpSession;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * 后台管理 控制层
@@ -23,6 +30,8 @@ public class AdminController {
 
     private final AdminService adminService;
 
+    private final List<EntityCache<?, ?>> entityCaches;
+
     /**
      * 获取登录状态
      *
@@ -33,13 +42,42 @@ public class AdminController {
      */
     @RequestMapping(value = "/admin/login/status", method = RequestMethod.POST)
     public R loginStatus(String name, String password, HttpSession session) {
-        //验证账号密码
-        if (adminService.verifyPassword(name, password)) {
-            //session放入用户名
-            session.setAttribute("name", name);
-            return R.ok("登录成功");
+        //只查一次管理员，在本地校验密码哈希
+        Admin admin = StrUtil.isBlank(name) ? null : adminService.getByName(name);
+        if (admin == null || !PasswordUtils.matches(password, admin.getPassword())) {
+            return R.error("用户名或密码错误");
+        }
+
+        //旧的明文密码登录成功后升级为哈希
+        if (PasswordUtils.needsRehash(admin.getPassword())) {
+            adminService.updatePassword(admin.getId(), PasswordUtils.hash(password));
+        }
+
+        //session放入用户名
+        session.setAttribute("name", name);
+        return R.ok("登录成功");
+    }
+
+    /**
+     * 查看实体缓存命中情况
+     *
+     * @return 各缓存统计
+     */
+    @GetMapping(value = "/admin/cache/stats")
+    public List<CacheStatsVo> cacheStats() {
+        List<CacheStatsVo> statsList = new ArrayList<>();
+        for (EntityCache<?, ?> entityCache : entityCaches) {
+            long hit = entityCache.getHitCount();
+            long miss = entityCache.getMissCount();
+            CacheStatsVo cacheStatsVo = new CacheStatsVo();
+            cacheStatsVo.setName(entityCache.getName());
+            cacheStatsVo.setSize(entityCache.size());
+            cacheStatsVo.setHitCount(hit);
+            cacheStatsVo.setMissCount(miss);
+            cacheStatsVo.setHitRate(hit + miss == 0 ? 0D : (double) hit / (hit + miss));
+            statsList.add(cacheStatsVo);
         }
-        return R.error("用户名或密码错误");
+        return statsList;
     }
 
     /**
@@ -0,0 +1,63 @@
+package com.lhy.music.utils;
+
+import com.lhy.music.entity.vo.MultiGetVo;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 批量查询工具
+ */
+public class BatchUtils {
+
+    /**
+     * 每次批量查询最多的id数
+     */
+    public static final int MAX_IDS = 100;
+
+    private BatchUtils() {
+    }
+
+    /**
+     * 去重去空并保持顺序，数量为0或超过MAX_IDS时返回null
+     *
+     * @param ids 前端传入的id
+     * @return 规范后的id
+     */
+    public static Set<Integer> ids(List<Integer> ids) {
+        if (ids == null) {
+            return null;
+        }
+        Set<Integer> result = new LinkedHashSet<>(ids);
+        result.remove(null);
+        return result.isEmpty() || result.size() > MAX_IDS ? null : result;
+    }
+
+    /**
+     * 按请求顺序组装结果，查不到的id放入missing
+     *
+     * @param ids    请求的id
+     * @param values 查询到的数据
+     * @return 批量查询结果
+     */
+    public static <T> MultiGetVo<T> multiGet(Set<Integer> ids, Map<Integer, T> values) {
+        List<T> items = new ArrayList<>(values.size());
+        List<Integer> missing = new ArrayList<>();
+        for (Integer id : ids) {
+            T value = values.get(id);
+            if (value != null) {
+                items.add(value);
+            } else {
+                missing.add(id);
+            }
+        }
+        MultiGetVo<T> multiGetVo = new MultiGetVo<>();
+        multiGetVo.setItems(items);
+        multiGetVo.setMissing(missing);
+        return multiGetVo;
+    }
+
+}
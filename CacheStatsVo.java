@@ -0,0 +1,36 @@
+package com.lhy.music.entity.vo;
+
+import lombok.Data;
+
+/**
+ * 缓存统计
+ */
+@Data
+public class CacheStatsVo {
+
+    /**
+     * 缓存名称
+     */
+    private String name;
+
+    /**
+     * 当前条数
+     */
+    private Integer size;
+
+    /**
+     * 命中次数
+     */
+    private Long hitCount;
+
+    /**
+     * 未命中次数
+     */
+    private Long missCount;
+
+    /**
+     * 命中率
+     */
+    private Double hitRate;
+
+}
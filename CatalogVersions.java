@@ -0,0 +1,120 @@
+package com.lhy.music.cache;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 目录数据版本号
+ * 每类数据一个版本号，写操作成功后递增，读接口用版本号生成ETag、用最后修改时间生成Last-Modified，
+ * 客户端带If-None-Match/If-Modified-Since重新验证时，数据没变直接返回304，不查询也不序列化
+ * 版本号只在本实例内存中，多实例部署时写操作只会让处理它的实例更新版本
+ */
+@Component
+public class CatalogVersions {
+
+    /**
+     * 数据类型
+     */
+    public enum Catalog {
+        SONG, SINGER, SONG_LIST, LIST_SONG, CONSUMER
+    }
+
+    //启动时间作为版本前缀，重启后的ETag不会和重启前重复
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+
+    private final Map<Catalog, AtomicLong> versions = new EnumMap<>(Catalog.class);
+
+    private final Map<Catalog, AtomicLong> modifiedTimes = new EnumMap<>(Catalog.class);
+
+    public CatalogVersions() {
+        long now = System.currentTimeMillis();
+        for (Catalog catalog : Catalog.values()) {
+            versions.put(catalog, new AtomicLong());
+            modifiedTimes.put(catalog, new AtomicLong(now));
+        }
+    }
+
+    /**
+     * 数据已修改，在写库成功后调用
+     *
+     * @param catalog 数据类型
+     */
+    public void bump(Catalog catalog) {
+        modifiedTimes.get(catalog).set(System.currentTimeMillis());
+        versions.get(catalog).incrementAndGet();
+    }
+
+    /**
+     * 当前版本号
+     *
+     * @param catalog 数据类型
+     * @return 版本号
+     */
+    public long version(Catalog catalog) {
+        return versions.get(catalog).get();
+    }
+
+    /**
+     * 由若干类数据的版本号组成的ETag
+     *
+     * @param catalogs 接口返回内容涉及的数据类型
+     * @return ETag
+     */
+    public String etag(Catalog... catalogs) {
+        StringBuilder etag = new StringBuilder("\"").append(epoch);
+        for (Catalog catalog : catalogs) {
+            etag.append('-').append(Long.toString(version(catalog), 36));
+        }
+        return etag.append('"').toString();
+    }
+
+    /**
+     * 若干类数据中最晚的修改时间
+     *
+     * @param catalogs 接口返回内容涉及的数据类型
+     * @return 毫秒时间戳
+     */
+    public long lastModified(Catalog... catalogs) {
+        long lastModified = 0;
+        for (Catalog catalog : catalogs) {
+            lastModified = Math.max(lastModified, modifiedTimes.get(catalog).get());
+        }
+        return lastModified;
+    }
+
+    /**
+     * 按数据版本判断客户端缓存是否仍然有效，有效时响应已设为304，接口直接返回null即可
+     *
+     * @param webRequest 请求
+     * @param catalogs   接口返回内容涉及的数据类型
+     * @return 是否未修改
+     */
+    public boolean notModified(ServletWebRequest webRequest, Catalog... catalogs) {
+        return notModified(webRequest, (Date) null, catalogs);
+    }
+
+    /**
+     * 按数据版本和行的更新时间判断客户端缓存是否仍然有效
+     *
+     * @param webRequest 请求
+     * @param updateTime 行的更新时间，为空时使用数据类型的修改时间
+     * @param catalogs   接口返回内容涉及的数据类型
+     * @return 是否未修改
+     */
+    public boolean notModified(ServletWebRequest webRequest, Date updateTime, Catalog... catalogs) {
+        HttpServletResponse response = webRequest.getResponse();
+        //要求客户端每次使用前都重新验证，避免按Last-Modified启发式缓存读到旧数据
+        if (response != null) {
+            response.setHeader("Cache-Control", "no-cache");
+        }
+        long lastModified = updateTime != null ? updateTime.getTime() : lastModified(catalogs);
+        return webRequest.checkNotModified(etag(catalogs), lastModified);
+    }
+
+}
@@ -0,0 +1,298 @@
+package com.lhy.music.storage;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.util.HexUtil;
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.core.util.StrUtil;
+import com.lhy.music.entity.vo.UploadSessionVo;
+import com.lhy.music.utils.PathUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分片上传
+ * 每个分片直接按偏移写入暂存文件并校验MD5，全部到齐后交给MediaStore保存
+ * 上传状态保存在内存中，服务重启后需要重新上传
+ * 同时进行的上传数有上限，超时未完成的上传由后台线程定时清理
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ChunkedUploads {
+
+    private static final String UPLOAD_DIR = "/upload/";
+
+    private static final int MIN_CHUNK_SIZE = 256 * 1024;
+
+    private static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    private final MediaStore mediaStore;
+
+    private final Map<String, UploadSession> sessions = new ConcurrentHashMap<>();
+
+    @Value("${music.upload.max-file-size:2147483648}")
+    private long maxFileSize;
+
+    @Value("${music.upload.session-timeout:86400000}")
+    private long sessionTimeout;
+
+    @Value("${music.upload.max-sessions:1000}")
+    private int maxSessions;
+
+    @Value("${music.upload.purge-interval:600000}")
+    private long purgeInterval;
+
+    private ScheduledExecutorService purger;
+
+    @PostConstruct
+    public void start() {
+        purger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "upload-purger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        purger.scheduleWithFixedDelay(this::purgeExpired, purgeInterval, purgeInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        purger.shutdown();
+    }
+
+    /**
+     * 开始分片上传
+     *
+     * @param fileName  原文件名
+     * @param fileSize  文件大小
+     * @param chunkSize 分片大小
+     * @return 上传状态，参数不合法或同时进行的上传过多时返回null
+     */
+    public UploadSessionVo init(String fileName, Long fileSize, Integer chunkSize) throws IOException {
+        if (StrUtil.isBlank(fileName) || fileSize == null || fileSize <= 0 || fileSize > maxFileSize
+                || chunkSize == null || chunkSize < MIN_CHUNK_SIZE || chunkSize > MAX_CHUNK_SIZE) {
+            return null;
+        }
+
+        Path dir = Paths.get(PathUtils.getClassLoadRootPath() + UPLOAD_DIR);
+        Files.createDirectories(dir);
+
+        UploadSession session = new UploadSession();
+        session.uploadId = IdUtil.fastSimpleUUID();
+        //只保留文件名部分，防止路径穿越
+        session.fileName = FileUtil.getName(fileName);
+        session.fileSize = fileSize;
+        session.chunkSize = chunkSize;
+        session.totalChunks = (int) ((fileSize + chunkSize - 1) / chunkSize);
+        session.part = dir.resolve(session.uploadId + ".part");
+        session.channel = FileChannel.open(session.part,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        session.touch();
+        synchronized (sessions) {
+            if (sessions.size() >= maxSessions) {
+                session.channel.close();
+                Files.deleteIfExists(session.part);
+                return null;
+            }
+            sessions.put(session.uploadId, session);
+        }
+        return session.toVo();
+    }
+
+    /**
+     * 查询上传状态
+     *
+     * @param uploadId 上传id
+     * @return 上传状态，不存在时返回null
+     */
+    public UploadSessionVo status(String uploadId) {
+        UploadSession session = sessions.get(uploadId);
+        return session == null ? null : session.toVo();
+    }
+
+    /**
+     * 写入一个分片
+     *
+     * @param uploadId 上传id
+     * @param index    分片序号，从0开始
+     * @param md5      分片MD5（十六进制）
+     * @param in       分片内容
+     * @return 是否写入成功，长度或MD5不一致时返回false，客户端重传即可
+     */
+    public boolean writeChunk(String uploadId, Integer index, String md5, InputStream in) throws IOException {
+        UploadSession session = sessions.get(uploadId);
+        if (session == null || index == null || index < 0 || index >= session.totalChunks || StrUtil.isBlank(md5)) {
+            return false;
+        }
+        synchronized (session) {
+            //已开始完成或清理，暂存文件即将关闭
+            if (session.closing) {
+                return false;
+            }
+            session.writing++;
+        }
+        boolean valid = false;
+        try {
+            valid = write(session, index, md5, in);
+        } finally {
+            synchronized (session) {
+                session.writing--;
+                //重传失败的分片可能已覆盖之前写好的内容，需要重新标记为未接收
+                session.received.set(index, valid);
+            }
+        }
+        return valid;
+    }
+
+    private boolean write(UploadSession session, int index, String md5, InputStream in) throws IOException {
+        session.touch();
+
+        long position = (long) index * session.chunkSize;
+        long expected = Math.min(session.chunkSize, session.fileSize - position);
+        MessageDigest digest = md5Digest();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        byte[] bytes = buffer.array();
+        long written = 0;
+        int read;
+        //按偏移直接写入暂存文件，不在内存中缓存整个分片
+        while ((read = in.read(bytes, 0, (int) Math.min(bytes.length, expected - written + 1))) > 0) {
+            if (written + read > expected) {
+                written = -1;
+                break;
+            }
+            digest.update(bytes, 0, read);
+            buffer.clear().limit(read);
+            while (buffer.hasRemaining()) {
+                written += session.channel.write(buffer, position + written);
+            }
+        }
+
+        return written == expected && md5.equalsIgnoreCase(HexUtil.encodeHexStr(digest.digest()));
+    }
+
+    /**
+     * 完成上传，保存到目标目录
+     *
+     * @param uploadId 上传id
+     * @param dir      目标目录，如 /song/
+     * @return 存储到数据库里的相对文件地址，分片未到齐或仍有分片在写入时返回null
+     */
+    public String complete(String uploadId, String dir) throws IOException {
+        UploadSession session = sessions.get(uploadId);
+        if (session == null) {
+            return null;
+        }
+        synchronized (session) {
+            //有分片正在写入时不能关闭暂存文件
+            if (session.closing || session.writing > 0 || session.received.cardinality() != session.totalChunks) {
+                return null;
+            }
+            session.closing = true;
+            sessions.remove(uploadId, session);
+        }
+
+        session.channel.close();
+        return mediaStore.store(session.part, session.fileName, dir);
+    }
+
+    /**
+     * 清理超时未完成的上传
+     */
+    private void purgeExpired() {
+        long now = System.currentTimeMillis();
+        for (UploadSession session : sessions.values()) {
+            synchronized (session) {
+                if (session.closing || session.writing > 0 || now - session.lastAccess <= sessionTimeout) {
+                    continue;
+                }
+                session.closing = true;
+                sessions.remove(session.uploadId, session);
+            }
+            try {
+                session.channel.close();
+                Files.deleteIfExists(session.part);
+            } catch (IOException e) {
+                log.warn("清理分片上传暂存文件失败：{}", session.part, e);
+            }
+        }
+    }
+
+    private static MessageDigest md5Digest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 单个文件的上传状态
+     */
+    private static class UploadSession {
+
+        private String uploadId;
+
+        private String fileName;
+
+        private long fileSize;
+
+        private int chunkSize;
+
+        private int totalChunks;
+
+        private Path part;
+
+        private FileChannel channel;
+
+        private final BitSet received = new BitSet();
+
+        //以下两个字段在session锁内读写：正在写入的分片数，是否已开始完成或清理
+        private int writing;
+
+        private boolean closing;
+
+        private volatile long lastAccess;
+
+        private void touch() {
+            lastAccess = System.currentTimeMillis();
+        }
+
+        private synchronized UploadSessionVo toVo() {
+            List<Integer> list = new ArrayList<>(received.cardinality());
+            for (int i = received.nextSetBit(0); i >= 0; i = received.nextSetBit(i + 1)) {
+                list.add(i);
+            }
+            UploadSessionVo uploadSessionVo = new UploadSessionVo();
+            uploadSessionVo.setUploadId(uploadId);
+            uploadSessionVo.setFileSize(fileSize);
+            uploadSessionVo.setChunkSize(chunkSize);
+            uploadSessionVo.setTotalChunks(totalChunks);
+            uploadSessionVo.setReceived(list);
+            return uploadSessionVo;
+        }
+
+    }
+
+}
@@ -0,0 +1,136 @@
+package com.lhy.music.cache;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import com.lhy.music.service.CollectService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 用户收藏歌曲位图
+ * 用户第一次查询时从collect表加载收藏的歌曲id，之后收藏/取消收藏同步修改位图
+ * 加载和修改按用户分段加锁，写库后再改位图，加载过程中发生的收藏不会丢失
+ */
+@Component
+@RequiredArgsConstructor
+public class CollectBitmaps {
+
+    private final CollectService collectService;
+
+    //加载位图时在锁内查库，用ReentrantLock而不是synchronized，虚拟线程等待时不会占住载体线程
+    private final ReentrantLock[] locks = newLocks(64);
+
+    private LRUCache<Integer, IntBitmap> bitmaps;
+
+    @Value("${music.collect.bitmap.capacity:10000}")
+    private int capacity;
+
+    @PostConstruct
+    public void init() {
+        bitmaps = CacheUtil.newLRUCache(capacity);
+    }
+
+    /**
+     * 查询哪些歌曲已被收藏
+     *
+     * @param userId  用户id
+     * @param songIds 歌曲id
+     * @return 已收藏的歌曲id，保持传入顺序
+     */
+    public List<Integer> contains(Integer userId, Collection<Integer> songIds) {
+        List<Integer> collected = new ArrayList<>();
+        ReentrantLock lock = lock(userId);
+        lock.lock();
+        try {
+            IntBitmap bitmap = load(userId);
+            for (Integer songId : songIds) {
+                if (songId != null && bitmap.contains(songId)) {
+                    collected.add(songId);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return collected;
+    }
+
+    /**
+     * 收藏已写库，已加载时同步加入位图
+     */
+    public void added(Integer userId, Integer songId) {
+        ReentrantLock lock = lock(userId);
+        lock.lock();
+        try {
+            IntBitmap bitmap = bitmaps.get(userId, false);
+            if (bitmap != null) {
+                bitmap.add(songId);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取消收藏已写库，已加载时同步移出位图
+     */
+    public void removed(Integer userId, Integer songId) {
+        ReentrantLock lock = lock(userId);
+        lock.lock();
+        try {
+            IntBitmap bitmap = bitmaps.get(userId, false);
+            if (bitmap != null) {
+                bitmap.remove(songId);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 不确定是否已写库时丢弃位图，下次查询时从库里重新加载
+     */
+    public void invalidate(Integer userId) {
+        ReentrantLock lock = lock(userId);
+        lock.lock();
+        try {
+            bitmaps.remove(userId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 在用户锁内调用
+     */
+    private IntBitmap load(Integer userId) {
+        IntBitmap bitmap = bitmaps.get(userId);
+        if (bitmap == null) {
+            bitmap = new IntBitmap();
+            for (Integer songId : collectService.songIdsOfUserId(userId)) {
+                bitmap.add(songId);
+            }
+            bitmaps.put(userId, bitmap);
+        }
+        return bitmap;
+    }
+
+    private ReentrantLock lock(Integer userId) {
+        return locks[(userId.hashCode() & 0x7FFFFFFF) % locks.length];
+    }
+
+    private static ReentrantLock[] newLocks(int size) {
+        ReentrantLock[] locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        return locks;
+    }
+
+}
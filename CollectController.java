@@ -1,14 +1,19 @@
 package com.lhy.music.controller;
 
+import com.lhy.music.cache.CollectBitmaps;
 import com.lhy.music.common.R;
 import com.lhy.music.entity.po.Collect;
 import com.lhy.music.service.CollectService;
+import com.lhy.music.storage.GroupCommitWriter;
+import com.lhy.music.utils.PageUtils;
 import lombok.RequiredArgsConstructor;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -22,8 +27,17 @@ import java.util.List;
 @RequiredArgsConstructor
 public class CollectController {
 
+    /**
+     * 批量判断时最多的歌曲数
+     */
+    private static final int MAX_CONTAINS = 500;
+
     private final CollectService CollectService;
 
+    private final CollectBitmaps collectBitmaps;
+
+    private final GroupCommitWriter<Collect> collectWriter;
+
     /**
      * 添加收藏
      *
@@ -34,23 +48,35 @@ public class CollectController {
      */
     @PostMapping(value = "/add")
     public R addCollect(Integer userId, Byte type, Integer songId) {
-        if (songId == null) {
+        if (userId == null || songId == null) {
             return R.error("收藏歌曲为空");
         }
-        if (CollectService.existSongId(userId, songId)) {
-            return R.error(2, "已收藏");
-        }
         //保存到收藏的对象中
         Collect Collect = new Collect();
         Collect.setUserId(userId);
         Collect.setType(type);
         Collect.setSongId(songId);
-        //保存成功
-        if (CollectService.insert(Collect)) {
-            return R.ok("收藏成功");
+        //先用收藏位图判重，已收藏时不用进入写入队列
+        if (!collectBitmaps.contains(userId, Collections.singletonList(songId)).isEmpty()) {
+            return R.error(2, "已收藏");
+        }
+        //开启组提交时进入写入队列，和同一时刻的其他收藏一起写库，并发的重复收藏由insert ignore跳过
+        //等待超时或不等待时，写库后在写入线程把歌曲加进位图
+        switch (collectWriter.write(Collect, () -> collectBitmaps.added(userId, songId))) {
+            case WRITTEN:
+                collectBitmaps.added(userId, songId);
+                return R.ok("收藏成功");
+            case QUEUED:
+                return R.ok("收藏成功");
+            case SKIPPED:
+                return R.error(2, "已收藏");
+            case TIMEOUT:
+                //之后可能写入，重新从库里加载这个用户的位图
+                collectBitmaps.invalidate(userId);
+                return R.error("收藏失败");
+            default:
+                return R.error("收藏失败");
         }
-
-        return R.error("收藏失败");
     }
 
     /**
@@ -62,17 +88,47 @@ public class CollectController {
      */
     @GetMapping(value = "/delete")
     public Boolean deleteCollect(Integer userId, Integer songId) {
-        return CollectService.deleteByUserIdSongId(userId, songId);
+        boolean deleted = CollectService.deleteByUserIdSongId(userId, songId);
+        if (deleted) {
+            collectBitmaps.removed(userId, songId);
+        }
+        return deleted;
+    }
+
+    /**
+     * 批量判断歌曲是否已收藏，用于歌曲列表显示收藏状态
+     *
+     * @param userId  用户id
+     * @param songIds 歌曲id，逗号分隔，最多500个
+     * @return 其中已收藏的歌曲id
+     */
+    @GetMapping(value = "/contains")
+    public R<List<Integer>> contains(Integer userId, @RequestParam List<Integer> songIds) {
+        if (userId == null) {
+            return R.error("用户id为空");
+        }
+        if (songIds.size() > MAX_CONTAINS) {
+            return R.error("歌曲数量超过" + MAX_CONTAINS);
+        }
+        return R.ok(collectBitmaps.contains(userId, songIds));
     }
 
     /**
      * 查询所有收藏
+     * 带after或limit参数时按主键游标分页
      *
+     * @param after 游标（上一页最后一条的主键）
+     * @param limit 每页条数
      * @return 收藏列表
      */
     @GetMapping(value = "/allCollect")
-    public List<Collect> allCollect() {
-        return CollectService.allCollect();
+    public Object allCollect(Integer after, Integer limit) {
+        //不带分页参数时保持原来的全量返回
+        if (after == null && limit == null) {
+            return CollectService.allCollect();
+        }
+        int size = PageUtils.limit(limit);
+        return PageUtils.page(CollectService.allCollectPage(PageUtils.after(after), size), size, Collect::getId);
     }
 
     /**
@@ -0,0 +1,545 @@
+package com.lhy.music.search;
+
+import cn.hutool.core.util.StrUtil;
+import com.lhy.music.cache.IntBitmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * 列式存储的实体表
+ * 每列一个基本类型数组（struct of arrays），字符串列字典编码成int，
+ * 建了索引的列维护 值 -> id位图 的倒排，按列过滤时不需要遍历实体，查询结果再按行组装成实体
+ * 非线程安全，由调用方加锁
+ *
+ * @param <T> 实体类型
+ */
+public class ColumnTable<T> {
+
+    private static final int NULL_INT = Integer.MIN_VALUE;
+
+    private static final long NULL_LONG = Long.MIN_VALUE;
+
+    private final Supplier<T> factory;
+
+    private final Function<T, Integer> idGetter;
+
+    private final BiConsumer<T, Integer> idSetter;
+
+    private final List<Column> columns = new ArrayList<>();
+
+    private final Map<String, KeyColumn> keyColumns = new HashMap<>();
+
+    //id -> 行号+1，0表示不存在
+    private int[] rowOfId = new int[0];
+
+    //行号 -> id
+    private int[] ids = new int[0];
+
+    //删除后空出的行号，新增时优先复用
+    private int[] freeRows = new int[0];
+
+    private int freeCount;
+
+    private int rowCount;
+
+    private int size;
+
+    /**
+     * @param factory  实体构造方法
+     * @param idGetter 主键获取方法
+     * @param idSetter 主键设置方法
+     */
+    public ColumnTable(Supplier<T> factory, Function<T, Integer> idGetter, BiConsumer<T, Integer> idSetter) {
+        this.factory = factory;
+        this.idGetter = idGetter;
+        this.idSetter = idSetter;
+    }
+
+    /**
+     * 添加整数列
+     *
+     * @param name    列名，建索引的列查询时使用
+     * @param getter  取值方法
+     * @param setter  组装实体时的赋值方法
+     * @param indexed 是否建立 值 -> id 倒排
+     * @return this
+     */
+    public ColumnTable<T> intColumn(String name, Function<T, ? extends Number> getter, ObjIntConsumer<T> setter, boolean indexed) {
+        addKeyColumn(new KeyColumn(name, indexed) {
+            @Override
+            int encode(T entity) {
+                Number value = getter.apply(entity);
+                return value == null ? NULL_INT : value.intValue();
+            }
+
+            @Override
+            void decode(int key, T entity) {
+                setter.accept(entity, key);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * 添加字符串列，值按字典编码保存
+     *
+     * @param name    列名
+     * @param getter  取值方法
+     * @param setter  组装实体时的赋值方法
+     * @param indexed 是否建立 值 -> id 倒排
+     * @return this
+     */
+    public ColumnTable<T> stringColumn(String name, Function<T, String> getter, BiConsumer<T, String> setter, boolean indexed) {
+        Dictionary dictionary = new Dictionary();
+        addKeyColumn(new KeyColumn(name, indexed) {
+            @Override
+            void reset() {
+                super.reset();
+                dictionary.clear();
+            }
+
+            @Override
+            int encode(T entity) {
+                String value = getter.apply(entity);
+                return value == null ? NULL_INT : dictionary.encode(value);
+            }
+
+            @Override
+            void decode(int key, T entity) {
+                setter.accept(entity, dictionary.decode(key));
+            }
+
+            @Override
+            void release(int key) {
+                dictionary.release(key);
+            }
+
+            @Override
+            List<Integer> matchKeys(String keyword) {
+                return dictionary.match(keyword);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * 添加日期列，按毫秒时间戳保存
+     *
+     * @param getter 取值方法
+     * @param setter 组装实体时的赋值方法
+     * @return this
+     */
+    public ColumnTable<T> dateColumn(Function<T, Date> getter, BiConsumer<T, Date> setter) {
+        columns.add(new Column() {
+            private long[] values = new long[0];
+
+            @Override
+            void grow(int capacity) {
+                values = Arrays.copyOf(values, capacity);
+            }
+
+            @Override
+            void write(int row, int id, T entity, boolean exists) {
+                Date value = getter.apply(entity);
+                values[row] = value == null ? NULL_LONG : value.getTime();
+            }
+
+            @Override
+            void read(int row, T entity) {
+                if (values[row] != NULL_LONG) {
+                    setter.accept(entity, new Date(values[row]));
+                }
+            }
+
+            @Override
+            void clear(int row, int id) {
+                values[row] = NULL_LONG;
+            }
+        });
+        return this;
+    }
+
+    /**
+     * 新增或覆盖一行
+     *
+     * @param entity 实体
+     */
+    public void put(T entity) {
+        int id = idGetter.apply(entity);
+        ensureIdCapacity(id);
+        boolean exists = rowOfId[id] != 0;
+        int row;
+        if (exists) {
+            row = rowOfId[id] - 1;
+        } else {
+            row = freeCount > 0 ? freeRows[--freeCount] : rowCount++;
+            ensureRowCapacity(rowCount);
+            rowOfId[id] = row + 1;
+            ids[row] = id;
+            size++;
+        }
+        for (Column column : columns) {
+            column.write(row, id, entity, exists);
+        }
+    }
+
+    /**
+     * 删除一行
+     *
+     * @param id 主键
+     */
+    public void remove(Integer id) {
+        if (id == null || id < 0 || id >= rowOfId.length || rowOfId[id] == 0) {
+            return;
+        }
+        int row = rowOfId[id] - 1;
+        for (Column column : columns) {
+            column.clear(row, id);
+        }
+        rowOfId[id] = 0;
+        if (freeCount == freeRows.length) {
+            freeRows = Arrays.copyOf(freeRows, Math.max(16, freeCount * 2));
+        }
+        freeRows[freeCount++] = row;
+        size--;
+    }
+
+    /**
+     * 清空后批量写入
+     *
+     * @param entities 实体
+     */
+    public void rebuild(List<T> entities) {
+        rowOfId = new int[0];
+        ids = new int[0];
+        freeRows = new int[0];
+        freeCount = 0;
+        rowCount = 0;
+        size = 0;
+        for (Column column : columns) {
+            column.reset();
+        }
+        for (T entity : entities) {
+            put(entity);
+        }
+    }
+
+    /**
+     * 某个建了索引的列等于value的id
+     *
+     * @param column 列名
+     * @param value  整数值
+     * @return id位图，没有时返回null
+     */
+    public IntBitmap idsOf(String column, int value) {
+        return keyColumn(column).postings.get(value);
+    }
+
+    /**
+     * 某个建了索引的字符串列包含keyword（忽略大小写）的id
+     *
+     * @param column  列名
+     * @param keyword 关键字
+     * @return id，从小到大
+     */
+    public int[] idsLike(String column, String keyword) {
+        KeyColumn keyColumn = keyColumn(column);
+        IntBitmap result = new IntBitmap();
+        for (Integer key : keyColumn.matchKeys(keyword)) {
+            IntBitmap bitmap = keyColumn.postings.get(key);
+            if (bitmap != null) {
+                for (int id : bitmap.toArray()) {
+                    result.add(id);
+                }
+            }
+        }
+        return result.toArray();
+    }
+
+    /**
+     * 是否存在某行
+     *
+     * @param id 主键
+     * @return 是否存在
+     */
+    public boolean contains(int id) {
+        return id >= 0 && id < rowOfId.length && rowOfId[id] != 0;
+    }
+
+    /**
+     * 读取某行的整数列
+     *
+     * @param column 列名
+     * @param id     主键
+     * @return 值，行不存在或值为null时返回null
+     */
+    public Integer intValue(String column, int id) {
+        if (id < 0 || id >= rowOfId.length || rowOfId[id] == 0) {
+            return null;
+        }
+        int key = keyColumn(column).keys[rowOfId[id] - 1];
+        return key == NULL_INT ? null : key;
+    }
+
+    /**
+     * 按id组装实体，不存在的id跳过
+     *
+     * @param idArray id
+     * @return 实体列表
+     */
+    public List<T> select(int[] idArray) {
+        List<T> list = new ArrayList<>(idArray.length);
+        for (int id : idArray) {
+            if (id < 0 || id >= rowOfId.length || rowOfId[id] == 0) {
+                continue;
+            }
+            int row = rowOfId[id] - 1;
+            T entity = factory.get();
+            idSetter.accept(entity, id);
+            for (Column column : columns) {
+                column.read(row, entity);
+            }
+            list.add(entity);
+        }
+        return list;
+    }
+
+    /**
+     * 行数
+     */
+    public int size() {
+        return size;
+    }
+
+    private void addKeyColumn(KeyColumn column) {
+        columns.add(column);
+        keyColumns.put(column.name, column);
+    }
+
+    private KeyColumn keyColumn(String name) {
+        KeyColumn column = keyColumns.get(name);
+        if (column == null) {
+            throw new IllegalArgumentException("没有列：" + name);
+        }
+        return column;
+    }
+
+    private void ensureIdCapacity(int id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("id不能为负数：" + id);
+        }
+        if (id >= rowOfId.length) {
+            rowOfId = Arrays.copyOf(rowOfId, Math.max(id + 1, rowOfId.length * 3 / 2 + 16));
+        }
+    }
+
+    private void ensureRowCapacity(int rows) {
+        if (rows > ids.length) {
+            int capacity = Math.max(rows, ids.length * 3 / 2 + 16);
+            ids = Arrays.copyOf(ids, capacity);
+            for (Column column : columns) {
+                column.grow(capacity);
+            }
+        }
+    }
+
+    /**
+     * 列
+     */
+    private abstract class Column {
+
+        void reset() {
+            grow(0);
+        }
+
+        abstract void grow(int capacity);
+
+        abstract void write(int row, int id, T entity, boolean exists);
+
+        abstract void read(int row, T entity);
+
+        abstract void clear(int row, int id);
+
+    }
+
+    /**
+     * 以int保存的列（整数或字典编码），可以建立倒排
+     */
+    private abstract class KeyColumn extends Column {
+
+        final String name;
+
+        final Map<Integer, IntBitmap> postings;
+
+        int[] keys = new int[0];
+
+        KeyColumn(String name, boolean indexed) {
+            this.name = name;
+            this.postings = indexed ? new HashMap<>() : null;
+        }
+
+        abstract int encode(T entity);
+
+        abstract void decode(int key, T entity);
+
+        /**
+         * 某行不再使用encode返回的key，字典编码的列借此回收字符串
+         */
+        void release(int key) {
+        }
+
+        List<Integer> matchKeys(String keyword) {
+            throw new UnsupportedOperationException("不是字符串列：" + name);
+        }
+
+        @Override
+        void reset() {
+            keys = new int[0];
+            if (postings != null) {
+                postings.clear();
+            }
+        }
+
+        @Override
+        void grow(int capacity) {
+            keys = Arrays.copyOf(keys, capacity);
+        }
+
+        @Override
+        void write(int row, int id, T entity, boolean exists) {
+            int key = encode(entity);
+            if (exists) {
+                int old = keys[row];
+                //encode已为新值计了一次引用，值未变时抵消掉，变了时释放旧值
+                if (old != NULL_INT) {
+                    release(old);
+                }
+                if (old == key) {
+                    return;
+                }
+                unindex(old, id);
+            }
+            keys[row] = key;
+            if (postings != null && key != NULL_INT) {
+                postings.computeIfAbsent(key, k -> new IntBitmap()).add(id);
+            }
+        }
+
+        @Override
+        void read(int row, T entity) {
+            if (keys[row] != NULL_INT) {
+                decode(keys[row], entity);
+            }
+        }
+
+        @Override
+        void clear(int row, int id) {
+            unindex(keys[row], id);
+            if (keys[row] != NULL_INT) {
+                release(keys[row]);
+            }
+            keys[row] = NULL_INT;
+        }
+
+        private void unindex(int key, int id) {
+            if (postings == null || key == NULL_INT) {
+                return;
+            }
+            IntBitmap bitmap = postings.get(key);
+            if (bitmap != null && bitmap.remove(id) && bitmap.cardinality() == 0) {
+                postings.remove(key);
+            }
+        }
+
+    }
+
+    /**
+     * 字符串字典，同一字符串只保存一份
+     * 每个编码记录引用它的行数，减到0时删除字符串，编码放入空闲列表供新字符串复用
+     */
+    private static class Dictionary {
+
+        private final Map<String, Integer> codes = new HashMap<>();
+
+        //编码 -> 字符串，已回收的编码为null
+        private final List<String> values = new ArrayList<>();
+
+        //编码 -> 引用行数
+        private int[] refs = new int[0];
+
+        private int[] freeCodes = new int[0];
+
+        private int freeCount;
+
+        /**
+         * 取字符串的编码并增加一次引用
+         */
+        int encode(String value) {
+            Integer code = codes.get(value);
+            if (code == null) {
+                if (freeCount > 0) {
+                    code = freeCodes[--freeCount];
+                    values.set(code, value);
+                } else {
+                    code = values.size();
+                    values.add(value);
+                    if (code == refs.length) {
+                        refs = Arrays.copyOf(refs, Math.max(16, code * 2));
+                    }
+                }
+                codes.put(value, code);
+            }
+            refs[code]++;
+            return code;
+        }
+
+        /**
+         * 释放一次引用，没有引用时回收
+         */
+        void release(int code) {
+            if (--refs[code] > 0) {
+                return;
+            }
+            codes.remove(values.get(code));
+            values.set(code, null);
+            if (freeCount == freeCodes.length) {
+                freeCodes = Arrays.copyOf(freeCodes, Math.max(16, freeCount * 2));
+            }
+            freeCodes[freeCount++] = code;
+        }
+
+        void clear() {
+            codes.clear();
+            values.clear();
+            refs = new int[0];
+            freeCodes = new int[0];
+            freeCount = 0;
+        }
+
+        String decode(int code) {
+            return values.get(code);
+        }
+
+        List<Integer> match(String keyword) {
+            List<Integer> matched = new ArrayList<>();
+            for (int code = 0; code < values.size(); code++) {
+                String value = values.get(code);
+                if (value != null && StrUtil.containsIgnoreCase(value, keyword)) {
+                    matched.add(code);
+                }
+            }
+            return matched;
+        }
+
+    }
+
+}
@@ -0,0 +1,250 @@
+package com.lhy.music.search;
+
+import com.lhy.music.cache.IntBitmap;
+import com.lhy.music.entity.po.Singer;
+import com.lhy.music.entity.po.Song;
+import com.lhy.music.entity.po.SongList;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 歌曲、歌手、歌单的列式内存快照
+ * 列表字段按列保存为基本类型数组和字典编码，歌手id、性别、歌单风格建立倒排，
+ * 按歌手查歌曲、按性别查歌手、按风格查歌单以及它们的组合都在内存中完成
+ * 由SearchIndexes在启动时全量构建、写操作后增量更新，不保存歌词
+ */
+@Component
+public class ColumnarCatalog {
+
+    private static final String SINGER_ID = "singerId";
+
+    private static final String SEX = "sex";
+
+    private static final String STYLE = "style";
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final ColumnTable<Song> songs = new ColumnTable<>(Song::new, Song::getId, Song::setId)
+            .intColumn(SINGER_ID, Song::getSingerId, Song::setSingerId, true)
+            .stringColumn("name", Song::getName, Song::setName, false)
+            .stringColumn("introduction", Song::getIntroduction, Song::setIntroduction, false)
+            .dateColumn(Song::getCreateTime, Song::setCreateTime)
+            .dateColumn(Song::getUpdateTime, Song::setUpdateTime)
+            .stringColumn("pic", Song::getPic, Song::setPic, false)
+            .stringColumn("url", Song::getUrl, Song::setUrl, false);
+
+    private final ColumnTable<Singer> singers = new ColumnTable<>(Singer::new, Singer::getId, Singer::setId)
+            .stringColumn("name", Singer::getName, Singer::setName, false)
+            .intColumn(SEX, Singer::getSex, (singer, sex) -> singer.setSex((byte) sex), true)
+            .stringColumn("pic", Singer::getPic, Singer::setPic, false)
+            .dateColumn(Singer::getBirth, Singer::setBirth)
+            .stringColumn("location", Singer::getLocation, Singer::setLocation, false)
+            .stringColumn("introduction", Singer::getIntroduction, Singer::setIntroduction, false);
+
+    private final ColumnTable<SongList> songLists = new ColumnTable<>(SongList::new, SongList::getId, SongList::setId)
+            .stringColumn("title", SongList::getTitle, SongList::setTitle, false)
+            .stringColumn("pic", SongList::getPic, SongList::setPic, false)
+            .stringColumn(STYLE, SongList::getStyle, SongList::setStyle, true)
+            .stringColumn("introduction", SongList::getIntroduction, SongList::setIntroduction, false);
+
+    /**
+     * 全量构建
+     *
+     * @param songList     全部歌曲
+     * @param singerList   全部歌手
+     * @param songListList 全部歌单
+     */
+    public void rebuild(List<Song> songList, List<Singer> singerList, List<SongList> songListList) {
+        lock.writeLock().lock();
+        try {
+            songs.rebuild(songList);
+            singers.rebuild(singerList);
+            songLists.rebuild(songListList);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 某个歌手的歌曲
+     *
+     * @param singerId 歌手id
+     * @return 歌曲列表（不含歌词）
+     */
+    public List<Song> songOfSingerId(Integer singerId) {
+        return filterSongs(singerId, null);
+    }
+
+    /**
+     * 歌曲是否存在
+     *
+     * @param id 歌曲id
+     * @return 是否存在
+     */
+    public boolean containsSong(Integer id) {
+        if (id == null) {
+            return false;
+        }
+        lock.readLock().lock();
+        try {
+            return songs.contains(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 按性别查询歌手
+     *
+     * @param sex 性别
+     * @return 歌手列表
+     */
+    public List<Singer> singerOfSex(Integer sex) {
+        if (sex == null) {
+            return Collections.emptyList();
+        }
+        lock.readLock().lock();
+        try {
+            IntBitmap ids = singers.idsOf(SEX, sex);
+            return ids == null ? Collections.emptyList() : singers.select(ids.toArray());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 按风格模糊查询歌单（忽略大小写），只扫描去重后的风格字典
+     *
+     * @param style 关键字
+     * @return 歌单列表
+     */
+    public List<SongList> likeStyle(String style) {
+        if (style == null) {
+            return Collections.emptyList();
+        }
+        lock.readLock().lock();
+        try {
+            return songLists.select(songLists.idsLike(STYLE, style));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 按歌手和歌手性别组合过滤歌曲，条件为空表示不限
+     *
+     * @param singerId  歌手id
+     * @param singerSex 歌手性别
+     * @return 歌曲列表（不含歌词）
+     */
+    public List<Song> filterSongs(Integer singerId, Integer singerSex) {
+        lock.readLock().lock();
+        try {
+            if (singerId != null) {
+                //指定了歌手时只需核对该歌手的性别
+                if (singerSex != null && !singerSex.equals(singers.intValue(SEX, singerId))) {
+                    return Collections.emptyList();
+                }
+                IntBitmap ids = songs.idsOf(SINGER_ID, singerId);
+                return ids == null ? Collections.emptyList() : songs.select(ids.toArray());
+            }
+            if (singerSex == null) {
+                return Collections.emptyList();
+            }
+
+            //该性别所有歌手的歌曲取并集
+            IntBitmap singerIds = singers.idsOf(SEX, singerSex);
+            if (singerIds == null) {
+                return Collections.emptyList();
+            }
+            IntBitmap songIds = new IntBitmap();
+            for (int id : singerIds.toArray()) {
+                IntBitmap ofSinger = songs.idsOf(SINGER_ID, id);
+                if (ofSinger != null) {
+                    for (int songId : ofSinger.toArray()) {
+                        songIds.add(songId);
+                    }
+                }
+            }
+            return songs.select(songIds.toArray());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 歌曲新增或修改
+     */
+    public void putSong(Song song) {
+        lock.writeLock().lock();
+        try {
+            songs.put(song);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 歌曲删除
+     */
+    public void removeSong(Integer id) {
+        lock.writeLock().lock();
+        try {
+            songs.remove(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 歌手新增或修改
+     */
+    public void putSinger(Singer singer) {
+        lock.writeLock().lock();
+        try {
+            singers.put(singer);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 歌手删除
+     */
+    public void removeSinger(Integer id) {
+        lock.writeLock().lock();
+        try {
+            singers.remove(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 歌单新增或修改
+     */
+    public void putSongList(SongList songList) {
+        lock.writeLock().lock();
+        try {
+            songLists.put(songList);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 歌单删除
+     */
+    public void removeSongList(Integer id) {
+        lock.writeLock().lock();
+        try {
+            songLists.remove(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+}
@@ -1,15 +1,32 @@
 package com.lhy.music.controller;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.NumberUtil;
+import cn.hutool.core.util.StrUtil;
+import com.lhy.music.cache.CommentLikeCounter;
+import com.lhy.music.cache.EntityCache;
 import com.lhy.music.common.R;
 import com.lhy.music.entity.po.Comment;
+import com.lhy.music.entity.po.Consumer;
+import com.lhy.music.entity.vo.CommentPageVo;
+import com.lhy.music.entity.vo.CommentVo;
 import com.lhy.music.service.CommentService;
+import com.lhy.music.service.ConsumerService;
+import com.lhy.music.storage.GroupCommitWriter;
+import com.lhy.music.utils.PageUtils;
 import lombok.RequiredArgsConstructor;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * 评论 控制层
@@ -22,8 +39,23 @@ import java.util.List;
 @RequiredArgsConstructor
 public class CommentController {
 
+    /**
+     * 最热排序
+     */
+    private static final String SORT_HOTTEST = "hottest";
+
     private final CommentService commentService;
 
+    private final ConsumerService consumerService;
+
+    private final EntityCache<Integer, Comment> commentCache;
+
+    private final CommentLikeCounter commentLikeCounter;
+
+    private final EntityCache<Integer, Consumer> consumerCache;
+
+    private final GroupCommitWriter<Comment> commentWriter;
+
     /**
      * 添加评论
      *
@@ -48,7 +80,8 @@ public class CommentController {
             comment.setSongListId(songListId);
         }
 
-        if (commentService.insert(comment)) {
+        //开启组提交时进入写入队列，和同一时刻的其他评论一起写库
+        if (commentWriter.write(comment)) {
             return R.ok("评论成功");
         }
 
@@ -79,6 +112,7 @@ public class CommentController {
 
         //更新成功
         if (commentService.update(comment)) {
+            commentCache.invalidate(comment.getId());
             return R.ok("修改成功");
         }
 
@@ -93,7 +127,9 @@ public class CommentController {
      */
     @GetMapping(value = "/delete")
     public Boolean deleteComment(Integer id) {
-        return commentService.delete(id);
+        boolean deleted = commentService.delete(id);
+        commentCache.invalidate(id);
+        return deleted;
     }
 
     /**
@@ -104,17 +140,25 @@ public class CommentController {
      */
     @GetMapping(value = "/selectByPrimaryKey")
     public Comment selectByPrimaryKey(Integer id) {
-        return commentService.selectByPrimaryKey(id);
+        return commentCache.get(id, commentService::selectByPrimaryKey);
     }
 
     /**
      * 查询所有评论
+     * 带after或limit参数时按主键游标分页
      *
+     * @param after 游标（上一页最后一条的主键）
+     * @param limit 每页条数
      * @return 所有评论
      */
     @GetMapping(value = "/allComment")
-    public List<Comment> allComment() {
-        return commentService.allComment();
+    public Object allComment(Integer after, Integer limit) {
+        //不带分页参数时保持原来的全量返回
+        if (after == null && limit == null) {
+            return commentService.allComment();
+        }
+        int size = PageUtils.limit(limit);
+        return PageUtils.page(commentService.allCommentPage(PageUtils.after(after), size), size, Comment::getId);
     }
 
     /**
@@ -139,8 +183,89 @@ public class CommentController {
         return commentService.commentOfSongListId(songListId);
     }
 
+    /**
+     * 分页查询歌曲或歌单的评论，带评论人用户名和头像
+     * 按游标翻页，评论人信息一次批量查询
+     *
+     * @param songId     歌曲id（与歌单id二选一）
+     * @param songListId 歌单id
+     * @param sort       排序：newest最新（默认），hottest最热
+     * @param cursor     游标（上一页返回的next）
+     * @param limit      每页条数
+     * @return 评论分页
+     */
+    @GetMapping(value = "/feed")
+    public R<CommentPageVo> feed(Integer songId, Integer songListId, String sort, String cursor, Integer limit) {
+        if ((songId == null) == (songListId == null)) {
+            return R.error("歌曲id和歌单id必须且只能传一个");
+        }
+        boolean hot = SORT_HOTTEST.equals(sort);
+        int size = PageUtils.limit(limit);
+
+        //游标：最新为 id，最热为 up:id；格式不对时从头开始
+        Integer cursorUp = null;
+        Integer cursorId = null;
+        if (StrUtil.isNotBlank(cursor)) {
+            List<String> parts = StrUtil.split(cursor, ':');
+            if (hot && parts.size() == 2 && NumberUtil.isInteger(parts.get(0)) && NumberUtil.isInteger(parts.get(1))) {
+                cursorUp = Integer.valueOf(parts.get(0));
+                cursorId = Integer.valueOf(parts.get(1));
+            } else if (!hot && parts.size() == 1 && NumberUtil.isInteger(parts.get(0))) {
+                cursorId = Integer.valueOf(parts.get(0));
+            }
+        }
+
+        List<Comment> comments = commentService.commentFeed(songId, songListId, hot, cursorUp, cursorId, size);
+        Set<Integer> userIds = comments.stream().map(Comment::getUserId).filter(Objects::nonNull).collect(Collectors.toSet());
+        Map<Integer, Consumer> consumers = userIds.isEmpty() ? Collections.emptyMap()
+                : consumerCache.getAll(userIds, consumerService::selectByIds, Consumer::getId);
+
+        List<CommentVo> list = new ArrayList<>(comments.size());
+        for (Comment comment : comments) {
+            CommentVo commentVo = BeanUtil.copyProperties(comment, CommentVo.class);
+            Consumer consumer = consumers.get(comment.getUserId());
+            if (consumer != null) {
+                commentVo.setUsername(consumer.getUsername());
+                commentVo.setAvator(consumer.getAvator());
+            }
+            list.add(commentVo);
+        }
+
+        CommentPageVo commentPageVo = new CommentPageVo();
+        commentPageVo.setList(list);
+        if (comments.size() >= size) {
+            Comment last = comments.get(comments.size() - 1);
+            commentPageVo.setNext(hot ? last.getUp() + ":" + last.getId() : String.valueOf(last.getId()));
+        }
+        return R.ok(commentPageVo);
+    }
+
+    /**
+     * 给某个评论点赞（点赞数加一）
+     * 点赞数在内存中累加，约1秒内批量写入数据库
+     *
+     * @param id     评论id
+     * @param userId 用户id
+     * @return 结果
+     */
+    @PostMapping(value = "/up")
+    public R up(Integer id, Integer userId) {
+        if (id == null || userId == null) {
+            return R.error("参数错误");
+        }
+        //只给存在的评论计数，避免任意id在内存和去重表里堆积
+        if (commentCache.get(id, commentService::selectByPrimaryKey) == null) {
+            return R.error("评论不存在");
+        }
+        if (commentLikeCounter.like(id, userId)) {
+            return R.ok("点赞成功");
+        }
+        return R.error(2, "已点赞");
+    }
+
     /**
      * 给某个评论点赞
+     * 由客户端传入点赞总数，并发点赞会互相覆盖，新客户端请使用 /comment/up
      *
      * @param id 评论id
      * @param up 点赞数
@@ -155,6 +280,7 @@ public class CommentController {
 
         //更新成功
         if (commentService.update(comment)) {
+            commentCache.invalidate(comment.getId());
             return R.ok("点赞成功");
         }
 
@@ -0,0 +1,135 @@
+package com.lhy.music.cache;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import com.lhy.music.entity.po.Comment;
+import com.lhy.music.service.CommentService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 评论点赞计数
+ * 点赞只累加内存中的未写入增量，后台线程定时取走增量批量写入comment.up，写库失败时把增量加回去下次重试
+ * 已写入的评论不再占用内存；点赞去重用有容量上限的LRU，被淘汰后同一用户可以再次点赞
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CommentLikeCounter {
+
+    /**
+     * 每条update语句最多包含的评论数
+     */
+    private static final int BATCH_SIZE = 500;
+
+    private final CommentService commentService;
+
+    private final EntityCache<Integer, Comment> commentCache;
+
+    //评论id -> 未写入数据库的点赞数
+    private final Map<Integer, Long> pending = new ConcurrentHashMap<>();
+
+    //最近点赞过的 评论id<<32|用户id，同一用户对同一评论只计一次
+    private LRUCache<Long, Boolean> liked;
+
+    private ScheduledExecutorService flusher;
+
+    @Value("${music.comment.like.flush-interval:1000}")
+    private long flushInterval;
+
+    @Value("${music.comment.like.dedupe-capacity:200000}")
+    private int dedupeCapacity;
+
+    @PostConstruct
+    public void start() {
+        liked = CacheUtil.newLRUCache(dedupeCapacity);
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "comment-like-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        flusher.shutdown();
+        flushQuietly();
+    }
+
+    /**
+     * 点赞，调用方需先确认评论存在
+     *
+     * @param commentId 评论id
+     * @param userId    用户id
+     * @return 是否计数成功，重复点赞返回false
+     */
+    public boolean like(Integer commentId, Integer userId) {
+        Long key = ((long) commentId << 32) | (userId & 0xFFFFFFFFL);
+        //判断和放入需要原子完成，锁内不做IO
+        synchronized (liked) {
+            if (liked.containsKey(key)) {
+                return false;
+            }
+            liked.put(key, Boolean.TRUE);
+        }
+        pending.merge(commentId, 1L, Long::sum);
+        return true;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("评论点赞数写入失败，下次重试", e);
+        }
+    }
+
+    /**
+     * 取走各评论未写入的增量批量写库
+     */
+    synchronized void flush() {
+        Map<Integer, Long> deltas = new HashMap<>();
+        for (Integer commentId : pending.keySet()) {
+            //remove是原子的，取走之后的点赞会计入新的条目
+            Long delta = pending.remove(commentId);
+            if (delta != null) {
+                deltas.put(commentId, delta);
+            }
+            if (deltas.size() >= BATCH_SIZE) {
+                write(deltas);
+                deltas = new HashMap<>();
+            }
+        }
+        if (!deltas.isEmpty()) {
+            write(deltas);
+        }
+    }
+
+    private void write(Map<Integer, Long> deltas) {
+        try {
+            commentService.increaseUp(deltas);
+        } catch (RuntimeException e) {
+            //写库失败，增量加回去下次重试
+            for (Map.Entry<Integer, Long> entry : deltas.entrySet()) {
+                pending.merge(entry.getKey(), entry.getValue(), Long::sum);
+            }
+            throw e;
+        }
+        for (Integer commentId : deltas.keySet()) {
+            commentCache.invalidate(commentId);
+        }
+    }
+
+}
@@ -0,0 +1,24 @@
+package com.lhy.music.entity.vo;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 评论分页结果
+ */
+@Data
+public class CommentPageVo {
+
+    /**
+     * 当前页评论
+     */
+    private List<CommentVo> list;
+
+    /**
+     * 下一页游标（作为下一次请求的cursor参数），为null表示没有下一页
+     * 最新排序为评论id，最热排序为 点赞数:评论id
+     */
+    private String next;
+
+}
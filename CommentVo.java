@@ -0,0 +1,39 @@
+package com.lhy.music.entity.vo;
+
+import lombok.Data;
+
+import java.util.Date;
+
+/**
+ * 评论（带评论人信息）
+ */
+@Data
+public class CommentVo {
+
+    private Integer id;
+
+    private Integer userId;
+
+    private Byte type;
+
+    private Integer songId;
+
+    private Integer songListId;
+
+    private String content;
+
+    private Date createTime;
+
+    private Integer up;
+
+    /**
+     * 评论人用户名
+     */
+    private String username;
+
+    /**
+     * 评论人头像
+     */
+    private String avator;
+
+}
@@ -1,22 +1,38 @@
 package com.lhy.music.controller;
 
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.date.DatePattern;
 import cn.hutool.core.date.DateTime;
 import cn.hutool.core.date.DateUtil;
 import cn.hutool.core.util.StrUtil;
+import com.lhy.music.cache.CatalogVersions.Catalog;
+import com.lhy.music.cache.CatalogVersions;
+import com.lhy.music.cache.EntityCache;
+import com.lhy.music.cache.LoginTokens;
 import com.lhy.music.common.R;
 import com.lhy.music.entity.po.Consumer;
 import com.lhy.music.entity.vo.ConsumerLoginVo;
+import com.lhy.music.entity.vo.MultiGetVo;
 import com.lhy.music.entity.vo.UploadConsumerPicVo;
 import com.lhy.music.service.ConsumerService;
-import com.lhy.music.utils.PathUtils;
+import com.lhy.music.storage.ChunkedUploads;
+import com.lhy.music.storage.ImageVariants;
+import com.lhy.music.storage.MediaStore;
+import com.lhy.music.utils.BatchUtils;
+import com.lhy.music.utils.PageUtils;
+import com.lhy.music.utils.PasswordUtils;
 import lombok.RequiredArgsConstructor;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * 前台用户相关 控制层
@@ -31,6 +47,18 @@ public class ConsumerController {
 
     private final ConsumerService consumerService;
 
+    private final ChunkedUploads chunkedUploads;
+
+    private final MediaStore mediaStore;
+
+    private final ImageVariants imageVariants;
+
+    private final EntityCache<Integer, Consumer> consumerCache;
+
+    private final LoginTokens loginTokens;
+
+    private final CatalogVersions catalogVersions;
+
     /**
      * 添加前台用户
      *
@@ -61,13 +89,18 @@ public class ConsumerController {
             return R.error("用户名已存在");
         }
 
+        //头像指向按内容保存的文件时占用一次引用，删除用户时释放
+        if (!mediaStore.acquire(avator)) {
+            return R.error("头像不存在");
+        }
+
         //把生日转换成Date格式
         DateTime birthDate = DateUtil.parse(birth, DatePattern.NORM_DATE_PATTERN);
 
         //保存到前端用户的对象中
         Consumer consumer = new Consumer();
         consumer.setUsername(username);
-        consumer.setPassword(password);
+        consumer.setPassword(PasswordUtils.hash(password));
         consumer.setSex(sex);
         consumer.setPhoneNum(phoneNum);
         consumer.setEmail(email);
@@ -78,8 +111,10 @@ public class ConsumerController {
 
         //保存成功
         if (consumerService.insert(consumer)) {
+            catalogVersions.bump(Catalog.CONSUMER);
             return R.ok("添加成功");
         }
+        mediaStore.release(avator);
         return R.error("添加失败");
     }
 
@@ -88,7 +123,7 @@ public class ConsumerController {
      *
      * @param id           用户id
      * @param username     账号
-     * @param password     密码
+     * @param password     新密码，为空时不修改
      * @param sex          性别
      * @param phoneNum     手机号
      * @param email        电子邮箱
@@ -102,8 +137,8 @@ public class ConsumerController {
             String id, String username, String password, Byte sex, String phoneNum,
             String email, String birth, String introduction, String location
     ) {
-        if (StrUtil.isBlank(username) || StrUtil.isBlank(password)) {
-            return R.error("用户名或密码不能为空");
+        if (StrUtil.isBlank(username)) {
+            return R.error("用户名不能为空");
         }
 
         //把生日转换成Date格式
@@ -113,7 +148,10 @@ public class ConsumerController {
         Consumer consumer = new Consumer();
         consumer.setId(Integer.parseInt(id));
         consumer.setUsername(username);
-        consumer.setPassword(password);
+        //只有传入新的明文密码时才修改；为空或回传的是已保存的哈希时保持原密码，避免重复哈希
+        if (StrUtil.isNotBlank(password) && !PasswordUtils.isHashed(password)) {
+            consumer.setPassword(PasswordUtils.hash(password));
+        }
         consumer.setSex(sex);
         consumer.setPhoneNum(phoneNum);
         consumer.setEmail(email);
@@ -123,6 +161,8 @@ public class ConsumerController {
 
         //保存成功
         if (consumerService.update(consumer)) {
+            consumerCache.invalidate(consumer.getId());
+            catalogVersions.bump(Catalog.CONSUMER);
             return R.ok("修改成功");
         }
         return R.error("修改失败");
@@ -136,28 +176,73 @@ public class ConsumerController {
      */
     @GetMapping(value = "/delete")
     public Boolean deleteConsumer(Integer id) {
-        return consumerService.delete(id);
+        Consumer old = consumerService.selectByPrimaryKey(id);
+        boolean deleted = consumerService.delete(id);
+        consumerCache.invalidate(id);
+        catalogVersions.bump(Catalog.CONSUMER);
+        if (deleted && old != null) {
+            mediaStore.release(old.getAvator());
+        }
+        return deleted;
     }
 
     /**
      * 查询前台用户
      *
-     * @param id 主键id
+     * @param id         主键id
+     * @param webRequest 请求
      * @return 前台用户
      */
     @GetMapping(value = "/selectByPrimaryKey")
-    public Consumer selectByPrimaryKey(Integer id) {
-        return consumerService.selectByPrimaryKey(id);
+    public Consumer selectByPrimaryKey(Integer id, ServletWebRequest webRequest) {
+        Consumer consumer = consumerCache.get(id, consumerService::selectByPrimaryKey);
+        //Last-Modified取用户的更新时间
+        if (consumer == null || catalogVersions.notModified(webRequest, consumer.getUpdateTime(), Catalog.CONSUMER)) {
+            return null;
+        }
+        return withoutPassword(consumer);
+    }
+
+    /**
+     * 批量查询前台用户（不含密码），已缓存的不再查库，其余一次 in 查询
+     *
+     * @param ids 用户id，逗号分隔，最多100个
+     * @return 按请求顺序排列的用户和不存在的id
+     */
+    @GetMapping(value = "/selectByIds")
+    public R<MultiGetVo<Consumer>> selectByIds(@RequestParam List<Integer> ids) {
+        Set<Integer> consumerIds = BatchUtils.ids(ids);
+        if (consumerIds == null) {
+            return R.error("id数量应在1到" + BatchUtils.MAX_IDS + "之间");
+        }
+        Map<Integer, Consumer> consumers = new HashMap<>();
+        consumerCache.getAll(consumerIds, consumerService::selectByIds, Consumer::getId)
+                .forEach((id, consumer) -> consumers.put(id, withoutPassword(consumer)));
+        return R.ok(BatchUtils.multiGet(consumerIds, consumers));
     }
 
     /**
      * 查询所有前台用户
+     * 带after或limit参数时按主键游标分页
      *
+     * @param after      游标（上一页最后一条的主键）
+     * @param limit      每页条数
+     * @param webRequest 请求
      * @return 前台用户
      */
     @GetMapping(value = "/allConsumer")
-    public List<Consumer> allConsumer() {
-        return consumerService.allConsumer();
+    public Object allConsumer(Integer after, Integer limit, ServletWebRequest webRequest) {
+        if (catalogVersions.notModified(webRequest, Catalog.CONSUMER)) {
+            return null;
+        }
+
+        //不带分页参数时保持原来的全量返回
+        if (after == null && limit == null) {
+            return withoutPassword(consumerService.allConsumer());
+        }
+        int size = PageUtils.limit(limit);
+        return PageUtils.page(withoutPassword(consumerService.allConsumerPage(PageUtils.after(after), size)), size,
+                Consumer::getId);
     }
 
     /**
@@ -165,43 +250,45 @@ public class ConsumerController {
      *
      * @param avatorFile 头像文件
      * @param id         用户id
+     * @param uploadId   分片上传id，与file二选一
      * @return 上传结果
      */
     @PostMapping(value = "/updateConsumerPic")
     public R<UploadConsumerPicVo> updateConsumerPic(
-            @RequestParam("file") MultipartFile avatorFile,
-            @RequestParam("id") Integer id
+            @RequestParam(value = "file", required = false) MultipartFile avatorFile,
+            @RequestParam("id") Integer id,
+            String uploadId
     ) throws IOException {
-        if (avatorFile.isEmpty()) {
-            return R.error("文件上传失败");
-        }
+        String storeAvatorPath;
+        if (StrUtil.isNotBlank(uploadId)) {
+            //分片上传已全部到齐，保存到目标目录
+            storeAvatorPath = chunkedUploads.complete(uploadId, "/userImages/");
+            if (storeAvatorPath == null) {
+                return R.error("分片上传未完成");
+            }
+        } else {
+            if (avatorFile == null || avatorFile.isEmpty()) {
+                return R.error("文件上传失败");
+            }
 
-        //文件名=当前时间到毫秒+原来的文件名
-        String fileName = System.currentTimeMillis() + avatorFile.getOriginalFilename();
-        //文件路径
-        String filePath = PathUtils.getClassLoadRootPath() + "/userImages/";
-        //如果文件路径不存在，新增该路径
-        File file1 = new File(filePath);
-        if (!file1.exists()) {
-            file1.mkdir();
+            //按内容哈希保存，相同文件只存一份
+            storeAvatorPath = mediaStore.store(avatorFile.getInputStream(), avatorFile.getOriginalFilename(), "/userImages/");
         }
-
-        //实际的文件地址
-        File dest = new File(filePath + fileName);
-        //存储到数据库里的相对文件地址
-        String storeAvatorPath = "/userImages/" + fileName;
-        avatorFile.transferTo(dest);
-        Consumer consumer = new Consumer();
-        consumer.setId(id);
-        consumer.setAvator(storeAvatorPath);
+        //直接读库里的旧值，更新时以旧值为条件，并发替换同一行时只有一个成功，旧文件只释放一次
+        Consumer old = consumerService.selectByPrimaryKey(id);
 
         UploadConsumerPicVo uploadConsumerPicVo = new UploadConsumerPicVo();
-        uploadConsumerPicVo.setAvator("/userImages/" + fileName);
+        uploadConsumerPicVo.setAvator(storeAvatorPath);
         //更新前端用户
-        if (consumerService.update(consumer)) {
+        if (old != null && consumerService.replaceAvator(id, old.getAvator(), storeAvatorPath)) {
+            consumerCache.invalidate(id);
+            catalogVersions.bump(Catalog.CONSUMER);
+            mediaStore.release(old.getAvator());
+            imageVariants.submit(storeAvatorPath);
             return R.ok("上传成功", uploadConsumerPicVo);
         }
 
+        mediaStore.release(storeAvatorPath);
         return R.error("上传失败");
     }
 
@@ -210,27 +297,83 @@ public class ConsumerController {
      *
      * @param username 用户名
      * @param password 用户密码
+     * @param response 响应，令牌写在X-Token头
      * @return 登录用户信息
      */
     @PostMapping(value = "/login")
-    public R<ConsumerLoginVo> login(String username, String password) {
+    public R<ConsumerLoginVo> login(String username, String password, HttpServletResponse response) {
         if (StrUtil.isBlank(username) || StrUtil.isBlank(password)) {
             return R.error("用户名或者密码不能为空");
         }
 
-        //保存到前端用户的对象中
-        Consumer consumer = new Consumer();
-        consumer.setUsername(username);
-        consumer.setPassword(password);
+        //只查一次用户，在本地校验密码哈希
+        Consumer consumer = consumerService.getByUsername(username);
+        if (consumer == null || !PasswordUtils.matches(password, consumer.getPassword())) {
+            return R.error("用户名或密码错误");
+        }
 
-        //验证成功
-        if (consumerService.verifyPassword(username, password)) {
-            ConsumerLoginVo consumerLoginVo = new ConsumerLoginVo();
-            consumerLoginVo.setUserMsg(consumerService.getByUsername(username));
-            return R.ok("登录成功", consumerLoginVo);
+        //旧的明文密码登录成功后升级为哈希
+        if (PasswordUtils.needsRehash(consumer.getPassword())) {
+            Consumer rehash = new Consumer();
+            rehash.setId(consumer.getId());
+            rehash.setPassword(PasswordUtils.hash(password));
+            consumerService.update(rehash);
+            consumerCache.invalidate(consumer.getId());
+            catalogVersions.bump(Catalog.CONSUMER);
         }
 
-        return R.error("用户名或密码错误");
+        //令牌放在响应头，之后的请求带上X-Token即可识别用户
+        response.setHeader(LoginTokens.HEADER, loginTokens.issue(consumer.getId()));
+        ConsumerLoginVo consumerLoginVo = new ConsumerLoginVo();
+        consumerLoginVo.setUserMsg(withoutPassword(consumer));
+        return R.ok("登录成功", consumerLoginVo);
+    }
+
+    /**
+     * 根据令牌获取当前登录用户
+     *
+     * @param token 登录令牌
+     * @return 登录用户信息
+     */
+    @GetMapping(value = "/current")
+    public R<ConsumerLoginVo> current(@RequestHeader(value = LoginTokens.HEADER, required = false) String token) {
+        Integer consumerId = loginTokens.consumerId(token);
+        Consumer consumer = consumerId == null ? null : consumerCache.get(consumerId, consumerService::selectByPrimaryKey);
+        if (consumer == null) {
+            return R.error("未登录或登录已过期");
+        }
+        ConsumerLoginVo consumerLoginVo = new ConsumerLoginVo();
+        consumerLoginVo.setUserMsg(withoutPassword(consumer));
+        return R.ok(consumerLoginVo);
+    }
+
+    /**
+     * 退出登录
+     *
+     * @param token 登录令牌
+     * @return 结果
+     */
+    @PostMapping(value = "/logout")
+    public R logout(@RequestHeader(value = LoginTokens.HEADER, required = false) String token) {
+        loginTokens.revoke(token);
+        return R.ok("退出成功");
+    }
+
+    /**
+     * 复制一份不含密码的用户信息，缓存里的对象不能修改
+     */
+    private static Consumer withoutPassword(Consumer consumer) {
+        Consumer copy = BeanUtil.copyProperties(consumer, Consumer.class);
+        copy.setPassword(null);
+        return copy;
+    }
+
+    private static List<Consumer> withoutPassword(List<Consumer> consumers) {
+        List<Consumer> list = new ArrayList<>(consumers.size());
+        for (Consumer consumer : consumers) {
+            list.add(withoutPassword(consumer));
+        }
+        return list;
     }
 
 }
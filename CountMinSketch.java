@@ -0,0 +1,64 @@
+package com.lhy.music.cache;
+
+/**
+ * Count-Min Sketch 频率估计
+ * 用固定大小的计数矩阵估计任意多个歌曲的播放次数，估计值只会偏大不会偏小
+ * 非线程安全，只在单个线程中使用
+ */
+public class CountMinSketch {
+
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    private final long[][] table;
+
+    private final int mask;
+
+    /**
+     * @param width 每行计数器个数，向上取整为2的幂
+     */
+    public CountMinSketch(int width) {
+        int size = Integer.highestOneBit(Math.max(width - 1, 1)) << 1;
+        this.table = new long[SEEDS.length][size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * 累加并返回累加后的估计值
+     *
+     * @param item  元素
+     * @param count 次数
+     * @return 估计值
+     */
+    public long add(int item, long count) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < SEEDS.length; row++) {
+            int index = index(item, row);
+            table[row][index] += count;
+            estimate = Math.min(estimate, table[row][index]);
+        }
+        return estimate;
+    }
+
+    /**
+     * 估计值
+     *
+     * @param item 元素
+     * @return 估计值
+     */
+    public long estimate(int item) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < SEEDS.length; row++) {
+            estimate = Math.min(estimate, table[row][index(item, row)]);
+        }
+        return estimate;
+    }
+
+    private int index(int item, int row) {
+        int h = item * SEEDS[row];
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h & mask;
+    }
+
+}
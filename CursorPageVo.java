@@ -0,0 +1,23 @@
+package com.lhy.music.entity.vo;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 游标分页结果
+ */
+@Data
+public class CursorPageVo<T> {
+
+    /**
+     * 当前页数据
+     */
+    private List<T> list;
+
+    /**
+     * 下一页游标（作为下一次请求的after参数），为null表示没有下一页
+     */
+    private Integer next;
+
+}
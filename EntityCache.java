@@ -0,0 +1,76 @@
+package com.lhy.music.cache;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 实体读穿缓存
+ * 查询时先读缓存，未命中再调用loader查库并放入缓存；写操作成功后需调用invalidate
+ *
+ * @param <K> 主键类型
+ * @param <V> 实体类型
+ */
+public interface EntityCache<K, V> {
+
+    /**
+     * 缓存名称
+     *
+     * @return 名称
+     */
+    String getName();
+
+    /**
+     * 读取实体，未命中时通过loader加载，loader返回null时不缓存
+     *
+     * @param key    主键
+     * @param loader 加载方法
+     * @return 实体
+     */
+    V get(K key, Function<K, V> loader);
+
+    /**
+     * 批量读取实体，未命中的主键通过loader一次加载
+     *
+     * @param keys      主键
+     * @param loader    批量加载方法，只会传入未命中的主键
+     * @param keyGetter 实体主键获取方法
+     * @return 主键到实体的映射，不存在的主键不在其中
+     */
+    Map<K, V> getAll(Collection<K> keys, Function<Collection<K>, List<V>> loader, Function<V, K> keyGetter);
+
+    /**
+     * 移除缓存
+     *
+     * @param key 主键
+     */
+    void invalidate(K key);
+
+    /**
+     * 清空缓存
+     */
+    void invalidateAll();
+
+    /**
+     * 命中次数
+     *
+     * @return 命中次数
+     */
+    long getHitCount();
+
+    /**
+     * 未命中次数
+     *
+     * @return 未命中次数
+     */
+    long getMissCount();
+
+    /**
+     * 当前缓存条数
+     *
+     * @return 条数
+     */
+    int size();
+
+}
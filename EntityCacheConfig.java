@@ -0,0 +1,70 @@
+package com.lhy.music.config;
+
+import com.lhy.music.cache.EntityCache;
+import com.lhy.music.cache.LfuEntityCache;
+import com.lhy.music.entity.po.Comment;
+import com.lhy.music.entity.po.Consumer;
+import com.lhy.music.entity.po.Singer;
+import com.lhy.music.entity.po.Song;
+import com.lhy.music.entity.po.SongList;
+import com.lhy.music.entity.vo.SongLyricVo;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 实体缓存配置
+ * 控制层按泛型类型注入，例如 EntityCache&lt;Integer, Song&gt;
+ */
+@Configuration
+public class EntityCacheConfig {
+
+    @Bean
+    public EntityCache<Integer, Song> songCache(
+            @Value("${music.cache.song.size:10000}") int size,
+            @Value("${music.cache.song.ttl:1800000}") long ttl
+    ) {
+        return new LfuEntityCache<>("song", size, ttl);
+    }
+
+    @Bean
+    public EntityCache<Integer, Singer> singerCache(
+            @Value("${music.cache.singer.size:2000}") int size,
+            @Value("${music.cache.singer.ttl:1800000}") long ttl
+    ) {
+        return new LfuEntityCache<>("singer", size, ttl);
+    }
+
+    @Bean
+    public EntityCache<Integer, SongList> songListCache(
+            @Value("${music.cache.songList.size:2000}") int size,
+            @Value("${music.cache.songList.ttl:1800000}") long ttl
+    ) {
+        return new LfuEntityCache<>("songList", size, ttl);
+    }
+
+    @Bean
+    public EntityCache<Integer, Consumer> consumerCache(
+            @Value("${music.cache.consumer.size:5000}") int size,
+            @Value("${music.cache.consumer.ttl:600000}") long ttl
+    ) {
+        return new LfuEntityCache<>("consumer", size, ttl);
+    }
+
+    @Bean
+    public EntityCache<Integer, Comment> commentCache(
+            @Value("${music.cache.comment.size:5000}") int size,
+            @Value("${music.cache.comment.ttl:300000}") long ttl
+    ) {
+        return new LfuEntityCache<>("comment", size, ttl);
+    }
+
+    @Bean
+    public EntityCache<Integer, SongLyricVo> lyricCache(
+            @Value("${music.cache.lyric.size:2048}") int size,
+            @Value("${music.cache.lyric.ttl:1800000}") long ttl
+    ) {
+        return new LfuEntityCache<>("lyric", size, ttl);
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.lhy.music.config;
+
+import com.lhy.music.entity.po.Collect;
+import com.lhy.music.entity.po.Comment;
+import com.lhy.music.service.CollectService;
+import com.lhy.music.service.CommentService;
+import com.lhy.music.storage.GroupCommitWriter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 评论、收藏的组提交写入配置
+ * 默认关闭，关闭时用原来的单行insert写库，开启后新增评论/收藏进入队列按批写库
+ * 控制层按泛型类型注入，例如 GroupCommitWriter&lt;Comment&gt;
+ */
+@Configuration
+public class GroupCommitConfig {
+
+    @Value("${music.write.group-commit.enabled:false}")
+    private boolean enabled;
+
+    @Value("${music.write.group-commit.await:true}")
+    private boolean awaitDurable;
+
+    @Value("${music.write.group-commit.capacity:10000}")
+    private int capacity;
+
+    @Value("${music.write.group-commit.max-batch:500}")
+    private int maxBatch;
+
+    @Value("${music.write.group-commit.max-latency:5}")
+    private long maxLatency;
+
+    @Value("${music.write.group-commit.offer-timeout:50}")
+    private long offerTimeout;
+
+    @Value("${music.write.group-commit.await-timeout:5000}")
+    private long awaitTimeout;
+
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    public GroupCommitWriter<Comment> commentWriter(CommentService commentService) {
+        return new GroupCommitWriter<>("comment", commentService::insert,
+                GroupCommitWriter.allWritten(commentService::insertBatch), enabled, awaitDurable, capacity, maxBatch,
+                maxLatency, offerTimeout, awaitTimeout);
+    }
+
+    /**
+     * 收藏在一个事务内逐行insert ignore（MyBatis BATCH执行器），按每行的影响行数区分新收藏和重复收藏
+     */
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    public GroupCommitWriter<Collect> collectWriter(CollectService collectService) {
+        return new GroupCommitWriter<>("collect", collectService::insertIgnore, collectService::insertIgnoreEach,
+                enabled, awaitDurable, capacity, maxBatch, maxLatency, offerTimeout, awaitTimeout);
+    }
+
+}
@@ -0,0 +1,327 @@
+package com.lhy.music.storage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * 组提交写入队列
+ * 调用方把行放进有界队列，后台线程攒够一批或等到最大延迟后用一条多行insert写库，
+ * 一批只提交一次，吞吐不再受每行一次提交刷盘的限制
+ * 队列满时调用方最多阻塞offerTimeout毫秒，仍然放不进去则拒绝（背压）
+ * 关闭时直接在调用线程用原来的单行语句写入，行为和原来的同步insert一致
+ * 每行的结果分开返回，insert ignore跳过的重复行和写入的行可以区分
+ *
+ * @param <T> 行类型
+ */
+@Slf4j
+public class GroupCommitWriter<T> {
+
+    private final String name;
+
+    private final Predicate<T> rowWriter;
+
+    private final Function<List<T>, boolean[]> batchWriter;
+
+    private final boolean enabled;
+
+    private final boolean awaitDurable;
+
+    private final int maxBatch;
+
+    private final long maxLatencyNanos;
+
+    private final long offerTimeout;
+
+    private final long awaitTimeout;
+
+    private final BlockingQueue<Pending<T>> queue;
+
+    /**
+     * 一行的写入结果
+     */
+    public enum Outcome {
+        //已写库
+        WRITTEN,
+        //未写入，例如insert ignore跳过的重复行
+        SKIPPED,
+        //已进入队列，不等待写库
+        QUEUED,
+        //等待超时，这一行仍在队列中，之后可能写入
+        TIMEOUT,
+        //写入失败或被拒绝
+        FAILED
+    }
+
+    //提交时持读锁，stop持写锁设置stopping，之后不会再有行进入队列
+    private final ReentrantReadWriteLock stopLock = new ReentrantReadWriteLock();
+
+    private volatile boolean stopping;
+
+    private Thread worker;
+
+    /**
+     * @param name         名称，用于线程名和日志
+     * @param rowWriter    单行写库方法，关闭组提交时使用，返回false表示未写入
+     * @param batchWriter  批量写库方法，一次调用写入一批行，返回每行是否写入
+     * @param enabled      是否开启组提交
+     * @param awaitDurable write是否等待写库完成再返回
+     * @param capacity     队列容量
+     * @param maxBatch     每批最多行数
+     * @param maxLatency   一批从取到第一行起最多等待的毫秒数
+     * @param offerTimeout 队列满时最多阻塞的毫秒数
+     * @param awaitTimeout write等待写库完成的最长毫秒数
+     */
+    public GroupCommitWriter(String name, Predicate<T> rowWriter, Function<List<T>, boolean[]> batchWriter, boolean enabled,
+                             boolean awaitDurable, int capacity, int maxBatch, long maxLatency, long offerTimeout,
+                             long awaitTimeout) {
+        this.name = name;
+        this.rowWriter = rowWriter;
+        this.batchWriter = batchWriter;
+        this.enabled = enabled;
+        this.awaitDurable = awaitDurable;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxLatency));
+        this.offerTimeout = offerTimeout;
+        this.awaitTimeout = awaitTimeout;
+        this.queue = enabled ? new ArrayBlockingQueue<>(capacity) : null;
+    }
+
+    /**
+     * 不区分每行结果的批量写库方法，没有抛异常即认为整批写入
+     */
+    public static <T> Function<List<T>, boolean[]> allWritten(Consumer<List<T>> batchWriter) {
+        return rows -> {
+            batchWriter.accept(rows);
+            boolean[] written = new boolean[rows.size()];
+            Arrays.fill(written, true);
+            return written;
+        };
+    }
+
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        worker = new Thread(this::drainLoop, "group-commit-" + name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * 停止接收新行，写完队列中剩余的行
+     */
+    public void stop() throws InterruptedException {
+        if (worker == null) {
+            return;
+        }
+        //等正在放入队列的提交结束，之后的提交都会被拒绝
+        stopLock.writeLock().lock();
+        try {
+            stopping = true;
+        } finally {
+            stopLock.writeLock().unlock();
+        }
+        worker.join(TimeUnit.SECONDS.toMillis(30));
+
+        //写入线程超时未退出时，剩余的行在这里写
+        List<Pending<T>> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) {
+            flush(rest);
+        }
+    }
+
+    /**
+     * 提交一行
+     *
+     * @param row 行
+     * @return 写库完成时以是否写入结束的future，写库失败时异常结束；队列满或已停止被拒绝时以RejectedExecutionException结束
+     */
+    public CompletableFuture<Boolean> submit(T row) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        if (!enabled) {
+            try {
+                future.complete(rowWriter.test(row));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
+
+        boolean offered = false;
+        stopLock.readLock().lock();
+        try {
+            if (!stopping) {
+                offered = queue.offer(new Pending<>(row, future), offerTimeout, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stopLock.readLock().unlock();
+        }
+        if (!offered) {
+            future.completeExceptionally(new RejectedExecutionException(
+                    name + (stopping ? "写入队列已停止" : "写入队列已满")));
+        }
+        return future;
+    }
+
+    /**
+     * 写入一行，按配置决定是否等待写库完成
+     *
+     * @param row 行
+     * @return 是否写入成功；不等待时只表示已进入队列
+     */
+    public boolean write(T row) {
+        Outcome outcome = write(row, null);
+        return outcome == Outcome.WRITTEN || outcome == Outcome.QUEUED;
+    }
+
+    /**
+     * 写入一行，按配置决定是否等待写库完成
+     * 等待超过awaitTimeout时返回TIMEOUT，但这一行仍在队列中，之后可能写入成功
+     *
+     * @param row       行
+     * @param onWritten 这一行写库后执行，不等待或等待超时后才写入时在写入线程执行，可以为null
+     * @return 写入结果
+     */
+    public Outcome write(T row, Runnable onWritten) {
+        CompletableFuture<Boolean> future = submit(row);
+        if (onWritten != null) {
+            future.thenAccept(written -> {
+                if (written) {
+                    onWritten.run();
+                }
+            });
+        }
+        if (!awaitDurable) {
+            return future.isCompletedExceptionally() ? Outcome.FAILED : Outcome.QUEUED;
+        }
+        try {
+            return future.get(awaitTimeout, TimeUnit.MILLISECONDS) ? Outcome.WRITTEN : Outcome.SKIPPED;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Outcome.FAILED;
+        } catch (ExecutionException e) {
+            return Outcome.FAILED;
+        } catch (TimeoutException e) {
+            log.warn("{}等待写库超过{}ms", name, awaitTimeout);
+            return Outcome.TIMEOUT;
+        }
+    }
+
+    private void drainLoop() {
+        List<Pending<T>> batch = new ArrayList<>(maxBatch);
+        //stopping之后不会再有行进入队列，写完剩余的行即可退出
+        while (!stopping || !queue.isEmpty()) {
+            try {
+                Pending<T> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    collect(batch, System.nanoTime() + maxLatencyNanos);
+                }
+            } catch (InterruptedException e) {
+                //只在stop时退出，中断后继续把已取出的写完
+                log.warn("{}写入线程被中断", name);
+            }
+            if (batch.isEmpty()) {
+                continue;
+            }
+            try {
+                flush(batch);
+            } catch (Throwable e) {
+                //任何错误都不能让写入线程退出，否则之后的提交会一直等到超时
+                log.error("{}写入线程出错", name, e);
+                for (Pending<T> pending : batch) {
+                    pending.future.completeExceptionally(e);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 在最大延迟内继续攒批，攒满立即返回
+     */
+    private void collect(List<Pending<T>> batch, long deadline) throws InterruptedException {
+        while (batch.size() < maxBatch) {
+            queue.drainTo(batch, maxBatch - batch.size());
+            if (batch.size() >= maxBatch) {
+                return;
+            }
+            long wait = deadline - System.nanoTime();
+            if (wait <= 0) {
+                return;
+            }
+            Pending<T> next = queue.poll(wait, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void flush(List<Pending<T>> batch) {
+        List<T> rows = new ArrayList<>(batch.size());
+        for (Pending<T> pending : batch) {
+            rows.add(pending.row);
+        }
+        try {
+            boolean[] written = batchWriter.apply(rows);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.complete(written[i]);
+            }
+            return;
+        } catch (Throwable e) {
+            if (batch.size() == 1) {
+                log.error("{}写入失败", name, e);
+                batch.get(0).future.completeExceptionally(e);
+                return;
+            }
+            log.warn("{}批量写入{}行失败，逐行重试", name, batch.size(), e);
+        }
+
+        //整批失败时逐行写，一行数据有问题不影响同批的其他行
+        for (Pending<T> pending : batch) {
+            try {
+                pending.future.complete(batchWriter.apply(Collections.singletonList(pending.row))[0]);
+            } catch (Throwable e) {
+                log.error("{}写入失败", name, e);
+                pending.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * 排队中的行和等待它写库的future
+     */
+    private static class Pending<T> {
+
+        private final T row;
+
+        private final CompletableFuture<Boolean> future;
+
+        private Pending(T row, CompletableFuture<Boolean> future) {
+            this.row = row;
+            this.future = future;
+        }
+
+    }
+
+}
@@ -0,0 +1,55 @@
+package com.lhy.music.controller;
+
+import com.lhy.music.storage.ImageVariants;
+import com.lhy.music.utils.PathUtils;
+import com.lhy.music.utils.RangeFileUtils;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * 图片 控制层
+ */
+@RestController
+@RequestMapping("/image")
+@RequiredArgsConstructor
+public class ImageController {
+
+    private final ImageVariants imageVariants;
+
+    /**
+     * 按宽度返回图片缩略图
+     * 上传的图片文件名不会重复，缩略图可以长期缓存；缩略图还没生成时先返回原图并提交生成
+     *
+     * @param path     原图路径，如 /img/songListPic/xxx.jpg
+     * @param w        期望宽度，取不小于它的最小缩略图
+     * @param request  请求
+     * @param response 响应
+     */
+    @GetMapping
+    public void variant(String path, Integer w, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (!ImageVariants.isImage(path)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        String root = PathUtils.getClassLoadRootPath();
+        String variant = ImageVariants.variantUrl(path, ImageVariants.fitWidth(w == null ? 0 : w));
+        if (Files.isRegularFile(ImageVariants.resolve(variant))) {
+            response.setHeader("Cache-Control", "public, max-age=31536000, immutable");
+            RangeFileUtils.send(root, variant, request, response);
+            return;
+        }
+
+        imageVariants.submit(path);
+        response.setHeader("Cache-Control", "public, max-age=60");
+        RangeFileUtils.send(root, path, request, response);
+    }
+
+}
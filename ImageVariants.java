@@ -0,0 +1,265 @@
+package com.lhy.music.storage;
+
+import cn.hutool.core.util.StrUtil;
+import com.lhy.music.utils.PathUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * 图片缩略图
+ * 上传封面/头像后在有界线程池里生成固定宽度的JPEG缩略图，保存在原图旁边（abc.png -> abc_w200.jpg）
+ * 队列满时直接放弃，请求缩略图时发现不存在会再次提交生成
+ * 解码前先从图片头读取宽高，像素数超过上限的图片不生成缩略图，防止小文件解码出巨大的位图
+ */
+@Slf4j
+@Component
+public class ImageVariants {
+
+    /**
+     * 缩略图宽度，从小到大
+     */
+    public static final int[] WIDTHS = {100, 200, 400};
+
+    /**
+     * 允许生成缩略图的目录
+     */
+    private static final String[] IMAGE_DIRS = {"/img/", "/userImages/"};
+
+    private static final String VARIANT_SUFFIX = "_w";
+
+    private static final Pattern VARIANT_URL = Pattern.compile(".*" + VARIANT_SUFFIX + "\\d+\\.jpg");
+
+    private static final float JPEG_QUALITY = 0.82f;
+
+    //正在排队或生成中的原图，避免重复提交
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    private ThreadPoolExecutor executor;
+
+    @Value("${music.image.variant.threads:2}")
+    private int threads;
+
+    @Value("${music.image.variant.queue-capacity:256}")
+    private int queueCapacity;
+
+    @Value("${music.image.variant.max-pixels:40000000}")
+    private long maxPixels;
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+            Thread thread = new Thread(r, "image-variant-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 是否是可以生成缩略图的图片路径
+     */
+    public static boolean isImage(String url) {
+        return url != null && !url.contains("..") && StrUtil.startWithAny(url, IMAGE_DIRS)
+                && !VARIANT_URL.matcher(url).matches();
+    }
+
+    /**
+     * 取不小于请求宽度的最小缩略图宽度，超过最大宽度时返回最大宽度
+     */
+    public static int fitWidth(int width) {
+        for (int w : WIDTHS) {
+            if (w >= width) {
+                return w;
+            }
+        }
+        return WIDTHS[WIDTHS.length - 1];
+    }
+
+    /**
+     * 缩略图路径
+     *
+     * @param url   原图路径
+     * @param width 宽度
+     * @return 缩略图路径
+     */
+    public static String variantUrl(String url, int width) {
+        int slash = url.lastIndexOf('/');
+        int dot = url.lastIndexOf('.');
+        String base = dot > slash ? url.substring(0, dot) : url;
+        return base + VARIANT_SUFFIX + width + ".jpg";
+    }
+
+    /**
+     * 提交生成缩略图
+     *
+     * @param url 原图路径
+     */
+    public void submit(String url) {
+        if (!isImage(url) || !pending.add(url)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    generate(url);
+                } catch (Exception e) {
+                    log.warn("生成缩略图失败：{}", url, e);
+                } finally {
+                    pending.remove(url);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //队列已满，等下次请求时再生成
+            pending.remove(url);
+        }
+    }
+
+    /**
+     * 删除原图对应的全部缩略图
+     *
+     * @param url 原图路径
+     */
+    public void delete(String url) {
+        if (!isImage(url)) {
+            return;
+        }
+        for (int width : WIDTHS) {
+            try {
+                Files.deleteIfExists(resolve(variantUrl(url, width)));
+            } catch (IOException e) {
+                log.warn("删除缩略图失败：{}", url, e);
+            }
+        }
+    }
+
+    /**
+     * 缩略图在磁盘上的位置
+     */
+    public static Path resolve(String url) {
+        return Paths.get(PathUtils.getClassLoadRootPath()).resolve(StrUtil.removePrefix(url, "/"));
+    }
+
+    private void generate(String url) throws IOException {
+        Path source = resolve(url);
+        if (!Files.isRegularFile(source)) {
+            return;
+        }
+        BufferedImage image = read(source);
+        if (image == null) {
+            return;
+        }
+
+        for (int width : WIDTHS) {
+            Path target = resolve(variantUrl(url, width));
+            if (Files.exists(target)) {
+                continue;
+            }
+            //原图比缩略图还小时不放大，只转成JPEG
+            int w = Math.min(width, image.getWidth());
+            int h = Math.max(1, (int) Math.round((double) image.getHeight() * w / image.getWidth()));
+            write(scale(image, w, h), target);
+        }
+    }
+
+    /**
+     * 读取图片，先检查图片头里的宽高再解码
+     *
+     * @param source 原图
+     * @return 图片，不是ImageIO能识别的格式或像素数超过上限时返回null
+     */
+    private BufferedImage read(Path source) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if (width <= 0 || height <= 0 || (long) width * height > maxPixels) {
+                    log.warn("图片尺寸{}x{}超过上限，不生成缩略图：{}", width, height, source);
+                    return null;
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage image, int width, int height) {
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            //JPEG没有透明通道，透明部分用白色填充
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+
+    /**
+     * 先写临时文件再原子改名，请求方不会读到写了一半的缩略图
+     */
+    private static void write(BufferedImage image, Path target) throws IOException {
+        Path tmp = Files.createTempFile(target.getParent(), "variant", ".part");
+        try {
+            ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+            try (ImageOutputStream out = ImageIO.createImageOutputStream(tmp.toFile())) {
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(JPEG_QUALITY);
+                writer.setOutput(out);
+                writer.write(null, new IIOImage(image, null, null), param);
+            } finally {
+                writer.dispose();
+            }
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+}
@@ -0,0 +1,192 @@
+package com.lhy.music.cache;
+
+import java.util.Arrays;
+
+/**
+ * 压缩整数位图（Roaring思路）
+ * 按高16位分桶，每个桶元素少时用有序的16位数组，超过4096个转成65536位的位图
+ * 非线程安全，由调用方加锁
+ */
+public class IntBitmap {
+
+    /**
+     * 数组桶转位图桶的阈值，超过后位图更省空间
+     */
+    private static final int ARRAY_MAX = 4096;
+
+    private static final int BITMAP_WORDS = 1 << 10;
+
+    //桶的高16位，有序
+    private char[] keys = new char[0];
+
+    //与keys一一对应，char[]为数组桶，long[]为位图桶
+    private Object[] containers = new Object[0];
+
+    //数组桶中的元素个数
+    private int[] sizes = new int[0];
+
+    private int bucketCount;
+
+    private int cardinality;
+
+    /**
+     * 添加
+     *
+     * @return 原来不存在时返回true
+     */
+    public boolean add(int value) {
+        char high = (char) (value >>> 16);
+        char low = (char) value;
+        int i = indexOf(high);
+        if (i < 0) {
+            i = -i - 1;
+            insertBucket(i, high);
+        }
+
+        boolean added;
+        if (containers[i] instanceof long[]) {
+            long[] words = (long[]) containers[i];
+            long mask = 1L << low;
+            added = (words[low >>> 6] & mask) == 0;
+            words[low >>> 6] |= mask;
+        } else {
+            added = addToArray(i, low);
+        }
+        if (added) {
+            cardinality++;
+        }
+        return added;
+    }
+
+    /**
+     * 删除
+     *
+     * @return 原来存在时返回true
+     */
+    public boolean remove(int value) {
+        int i = indexOf((char) (value >>> 16));
+        if (i < 0) {
+            return false;
+        }
+        char low = (char) value;
+        boolean removed;
+        if (containers[i] instanceof long[]) {
+            long[] words = (long[]) containers[i];
+            long mask = 1L << low;
+            removed = (words[low >>> 6] & mask) != 0;
+            words[low >>> 6] &= ~mask;
+        } else {
+            char[] array = (char[]) containers[i];
+            int pos = Arrays.binarySearch(array, 0, sizes[i], low);
+            removed = pos >= 0;
+            if (removed) {
+                System.arraycopy(array, pos + 1, array, pos, sizes[i] - pos - 1);
+                sizes[i]--;
+            }
+        }
+        if (removed) {
+            cardinality--;
+        }
+        return removed;
+    }
+
+    /**
+     * 是否包含
+     */
+    public boolean contains(int value) {
+        int i = indexOf((char) (value >>> 16));
+        if (i < 0) {
+            return false;
+        }
+        char low = (char) value;
+        if (containers[i] instanceof long[]) {
+            return (((long[]) containers[i])[low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch((char[]) containers[i], 0, sizes[i], low) >= 0;
+    }
+
+    /**
+     * 元素个数
+     */
+    public int cardinality() {
+        return cardinality;
+    }
+
+    /**
+     * 全部元素，按无符号顺序（非负数从小到大）排列
+     */
+    public int[] toArray() {
+        int[] values = new int[cardinality];
+        int n = 0;
+        for (int i = 0; i < bucketCount; i++) {
+            int high = keys[i] << 16;
+            if (containers[i] instanceof long[]) {
+                long[] words = (long[]) containers[i];
+                for (int w = 0; w < words.length; w++) {
+                    long word = words[w];
+                    while (word != 0) {
+                        values[n++] = high | (w << 6) | Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
+                    }
+                }
+            } else {
+                char[] array = (char[]) containers[i];
+                for (int j = 0; j < sizes[i]; j++) {
+                    values[n++] = high | array[j];
+                }
+            }
+        }
+        return values;
+    }
+
+    private int indexOf(char high) {
+        return Arrays.binarySearch(keys, 0, bucketCount, high);
+    }
+
+    private void insertBucket(int i, char high) {
+        if (bucketCount == keys.length) {
+            int capacity = Math.max(4, bucketCount * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            containers = Arrays.copyOf(containers, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+        }
+        System.arraycopy(keys, i, keys, i + 1, bucketCount - i);
+        System.arraycopy(containers, i, containers, i + 1, bucketCount - i);
+        System.arraycopy(sizes, i, sizes, i + 1, bucketCount - i);
+        keys[i] = high;
+        containers[i] = new char[4];
+        sizes[i] = 0;
+        bucketCount++;
+    }
+
+    private boolean addToArray(int i, char low) {
+        char[] array = (char[]) containers[i];
+        int size = sizes[i];
+        int pos = Arrays.binarySearch(array, 0, size, low);
+        if (pos >= 0) {
+            return false;
+        }
+        pos = -pos - 1;
+
+        //数组桶已满，转成位图桶
+        if (size == ARRAY_MAX) {
+            long[] words = new long[BITMAP_WORDS];
+            for (int j = 0; j < size; j++) {
+                words[array[j] >>> 6] |= 1L << array[j];
+            }
+            words[low >>> 6] |= 1L << low;
+            containers[i] = words;
+            return true;
+        }
+
+        if (size == array.length) {
+            array = Arrays.copyOf(array, Math.min(ARRAY_MAX, size * 2));
+            containers[i] = array;
+        }
+        System.arraycopy(array, pos, array, pos + 1, size - pos);
+        array[pos] = low;
+        sizes[i] = size + 1;
+        return true;
+    }
+
+}
@@ -0,0 +1,164 @@
+package com.lhy.music.cache;
+
+import cn.hutool.cache.impl.LFUCache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * 基于hutool LFUCache的实体缓存
+ * 容量满时淘汰访问频率最低的条目，每个条目有过期时间
+ *
+ * @param <K> 主键类型
+ * @param <V> 实体类型
+ */
+public class LfuEntityCache<K, V> implements EntityCache<K, V> {
+
+    private final String name;
+
+    private final LFUCache<K, V> cache;
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    //每次失效递增，加载期间发生过失效的结果不放入缓存，避免旧数据覆盖
+    private final AtomicLong generation = new AtomicLong();
+
+    //失效和"核对generation后放入"在同一把锁内完成，核对通过后不会再插进一次失效
+    private final ReentrantLock invalidationLock = new ReentrantLock();
+
+    /**
+     * @param name     缓存名称
+     * @param capacity 最大条数
+     * @param timeout  过期时间（毫秒），从放入缓存时算起，读取不会延长
+     */
+    public LfuEntityCache(String name, int capacity, long timeout) {
+        this.name = name;
+        this.cache = new LFUCache<>(capacity, timeout);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public V get(K key, Function<K, V> loader) {
+        if (key == null) {
+            return null;
+        }
+        //不刷新最后访问时间，热点数据也按放入时间过期
+        V value = cache.get(key, false);
+        if (value != null) {
+            hitCount.increment();
+            return value;
+        }
+
+        missCount.increment();
+        long start = generation.get();
+        value = loader.apply(key);
+        if (value != null) {
+            putIfFresh(key, value, start);
+        }
+        return value;
+    }
+
+    @Override
+    public Map<K, V> getAll(Collection<K> keys, Function<Collection<K>, List<V>> loader, Function<V, K> keyGetter) {
+        Map<K, V> values = new HashMap<>();
+        List<K> misses = new ArrayList<>();
+        for (K key : keys) {
+            V value = key == null ? null : cache.get(key, false);
+            if (value != null) {
+                values.put(key, value);
+            } else if (key != null) {
+                misses.add(key);
+            }
+        }
+        hitCount.add(values.size());
+        if (misses.isEmpty()) {
+            return values;
+        }
+
+        missCount.add(misses.size());
+        long start = generation.get();
+        List<V> loaded = loader.apply(misses);
+        for (V value : loaded) {
+            values.put(keyGetter.apply(value), value);
+        }
+        invalidationLock.lock();
+        try {
+            if (generation.get() == start) {
+                for (V value : loaded) {
+                    cache.put(keyGetter.apply(value), value);
+                }
+            }
+        } finally {
+            invalidationLock.unlock();
+        }
+        return values;
+    }
+
+    /**
+     * 加载期间没有发生失效时放入缓存
+     */
+    private void putIfFresh(K key, V value, long start) {
+        invalidationLock.lock();
+        try {
+            if (generation.get() == start) {
+                cache.put(key, value);
+            }
+        } finally {
+            invalidationLock.unlock();
+        }
+    }
+
+    @Override
+    public void invalidate(K key) {
+        if (key == null) {
+            return;
+        }
+        invalidationLock.lock();
+        try {
+            generation.incrementAndGet();
+            cache.remove(key);
+        } finally {
+            invalidationLock.unlock();
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        invalidationLock.lock();
+        try {
+            generation.incrementAndGet();
+            cache.clear();
+        } finally {
+            invalidationLock.unlock();
+        }
+    }
+
+    @Override
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    @Override
+    public int size() {
+        return cache.size();
+    }
+
+}
@@ -1,15 +1,34 @@
 package com.lhy.music.controller;
 
+import com.lhy.music.cache.CatalogVersions.Catalog;
+import com.lhy.music.cache.CatalogVersions;
 import com.lhy.music.common.R;
 import com.lhy.music.entity.po.ListSong;
+import com.lhy.music.entity.po.Singer;
+import com.lhy.music.entity.po.Song;
+import com.lhy.music.entity.vo.CursorPageVo;
+import com.lhy.music.entity.vo.ListSongDetailVo;
 import com.lhy.music.service.ListSongService;
+import com.lhy.music.service.SingerService;
+import com.lhy.music.service.SongService;
+import com.lhy.music.utils.PageUtils;
 import lombok.RequiredArgsConstructor;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * 歌单内歌曲 控制层
@@ -22,40 +41,149 @@ import java.util.List;
 @RequiredArgsConstructor
 public class ListSongController {
 
+    /**
+     * 批量操作最多的歌曲数，保证一条语句完成
+     */
+    private static final int MAX_BATCH = 1000;
+
     private final ListSongService listSongService;
 
+    private final SongService songService;
+
+    private final SingerService singerService;
+
+    private final CatalogVersions catalogVersions;
+
     /**
      * 给歌单添加歌曲
      *
      * @param songId     歌曲id
      * @param songListId 歌单id
-     * @return 添加结果
+     * @return 实际添加的歌曲数，已在歌单里时为0
      */
     @PostMapping(value = "/add")
-    public R addListSong(Integer songId, Integer songListId) {
-        //获取前端传来的参数
-        ListSong listSong = new ListSong();
-        listSong.setSongId(songId);
-        listSong.setSongListId(songListId);
-
-        //插入歌单
-        if (listSongService.insert(listSong)) {
-            return R.ok("保存成功");
+    public R<Integer> addListSong(Integer songId, Integer songListId) {
+        if (songId == null || songListId == null) {
+            return R.error("保存失败");
+        }
+        //和批量添加一样用insert ignore，重复添加不触发唯一索引冲突
+        int added = listSongService.insertBatch(songListId, Collections.singleton(songId));
+        if (added > 0) {
+            catalogVersions.bump(Catalog.LIST_SONG);
+        }
+        return R.ok("保存成功", added);
+    }
+
+    /**
+     * 批量给歌单添加歌曲，一条多行insert完成，已在歌单里的歌曲跳过
+     *
+     * @param songListId 歌单id
+     * @param songIds    歌曲id，逗号分隔，最多1000个
+     * @return 实际添加的歌曲数
+     */
+    @PostMapping(value = "/addBatch")
+    public R<Integer> addBatch(Integer songListId, @RequestParam List<Integer> songIds) {
+        Set<Integer> ids = batchIds(songIds);
+        if (songListId == null || ids == null) {
+            return R.error("歌曲数量应在1到" + MAX_BATCH + "之间");
+        }
+        int added = listSongService.insertBatch(songListId, ids);
+        catalogVersions.bump(Catalog.LIST_SONG);
+        return R.ok("保存成功", added);
+    }
+
+    /**
+     * 批量删除歌单里的歌曲，一条delete ... in完成
+     *
+     * @param songListId 歌单id
+     * @param songIds    歌曲id，逗号分隔，最多1000个
+     * @return 实际删除的歌曲数
+     */
+    @PostMapping(value = "/deleteBatch")
+    public R<Integer> deleteBatch(Integer songListId, @RequestParam List<Integer> songIds) {
+        Set<Integer> ids = batchIds(songIds);
+        if (songListId == null || ids == null) {
+            return R.error("歌曲数量应在1到" + MAX_BATCH + "之间");
         }
-        return R.error("保存失败");
+        int deleted = listSongService.deleteBatch(songListId, ids);
+        catalogVersions.bump(Catalog.LIST_SONG);
+        return R.ok("删除成功", deleted);
     }
 
     /**
      * 根据歌单id查询歌曲
      *
      * @param songListId 歌单id
+     * @param webRequest 请求
      * @return 歌曲列表
      */
     @GetMapping(value = "/detail")
-    public List<ListSong> detail(Integer songListId) {
+    public List<ListSong> detail(Integer songListId, ServletWebRequest webRequest) {
+        if (catalogVersions.notModified(webRequest, Catalog.LIST_SONG)) {
+            return null;
+        }
         return listSongService.listSongOfSongListId(songListId);
     }
 
+    /**
+     * 分页查询歌单里的歌曲，连同歌曲和歌手信息一起返回（不含歌词）
+     * 每页只查三次库：歌单歌曲、歌曲 in (...)、歌手 in (...)
+     *
+     * @param songListId 歌单id
+     * @param after      游标（上一页最后一条的id）
+     * @param limit      每页条数
+     * @param webRequest 请求
+     * @return 歌曲详情分页
+     */
+    @GetMapping(value = "/songs")
+    public R<CursorPageVo<ListSongDetailVo>> songs(Integer songListId, Integer after, Integer limit, ServletWebRequest webRequest) {
+        if (catalogVersions.notModified(webRequest, Catalog.LIST_SONG, Catalog.SONG, Catalog.SINGER)) {
+            return null;
+        }
+
+        if (songListId == null) {
+            return R.error("歌单id为空");
+        }
+        int size = PageUtils.limit(limit);
+        List<ListSong> listSongs = listSongService.listSongOfSongListIdPage(songListId, PageUtils.after(after), size);
+
+        Map<Integer, Song> songMap = new HashMap<>();
+        Map<Integer, Singer> singerMap = new HashMap<>();
+        if (!listSongs.isEmpty()) {
+            Set<Integer> songIds = listSongs.stream().map(ListSong::getSongId).collect(Collectors.toSet());
+            for (Song song : songService.selectByIds(songIds)) {
+                songMap.put(song.getId(), song);
+            }
+            Set<Integer> singerIds = songMap.values().stream().map(Song::getSingerId)
+                    .filter(Objects::nonNull).collect(Collectors.toSet());
+            if (!singerIds.isEmpty()) {
+                for (Singer singer : singerService.selectByIds(singerIds)) {
+                    singerMap.put(singer.getId(), singer);
+                }
+            }
+        }
+
+        List<ListSongDetailVo> details = new ArrayList<>();
+        for (ListSong listSong : listSongs) {
+            Song song = songMap.get(listSong.getSongId());
+            //歌曲已被删除
+            if (song == null) {
+                continue;
+            }
+            ListSongDetailVo listSongDetailVo = new ListSongDetailVo();
+            listSongDetailVo.setId(listSong.getId());
+            listSongDetailVo.setSong(song);
+            listSongDetailVo.setSinger(singerMap.get(song.getSingerId()));
+            details.add(listSongDetailVo);
+        }
+
+        //游标按歌单歌曲计算，跳过已删除的歌曲不影响翻页
+        CursorPageVo<ListSongDetailVo> page = new CursorPageVo<>();
+        page.setList(details);
+        page.setNext(PageUtils.page(listSongs, size, ListSong::getId).getNext());
+        return R.ok(page);
+    }
+
     /**
      * 删除歌单里的歌曲
      *
@@ -65,7 +193,18 @@ public class ListSongController {
      */
     @GetMapping(value = "/delete")
     public Boolean delete(Integer songId, Integer songListId) {
-        return listSongService.deleteBySongIdAndSongListId(songId, songListId);
+        boolean deleted = listSongService.deleteBySongIdAndSongListId(songId, songListId);
+        catalogVersions.bump(Catalog.LIST_SONG);
+        return deleted;
+    }
+
+    /**
+     * 去重去空，数量不合法时返回null
+     */
+    private static Set<Integer> batchIds(List<Integer> songIds) {
+        Set<Integer> ids = new LinkedHashSet<>(songIds);
+        ids.remove(null);
+        return ids.isEmpty() || ids.size() > MAX_BATCH ? null : ids;
     }
 
 }
@@ -0,0 +1,28 @@
+package com.lhy.music.entity.vo;
+
+import com.lhy.music.entity.po.Singer;
+import com.lhy.music.entity.po.Song;
+import lombok.Data;
+
+/**
+ * 歌单内歌曲详情
+ */
+@Data
+public class ListSongDetailVo {
+
+    /**
+     * 歌单歌曲关系id，用作分页游标
+     */
+    private Integer id;
+
+    /**
+     * 歌曲（不含歌词）
+     */
+    private Song song;
+
+    /**
+     * 歌手
+     */
+    private Singer singer;
+
+}
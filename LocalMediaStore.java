@@ -0,0 +1,179 @@
+package com.lhy.music.storage;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.util.HexUtil;
+import cn.hutool.core.util.StrUtil;
+import com.lhy.music.mapper.MediaBlobMapper;
+import com.lhy.music.utils.PathUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 本地磁盘媒体存储
+ * 文件按SHA-256命名并分散到两级子目录（/song/ab/cd/abcd....mp3），相同内容只保存一份，
+ * 写入时先写临时文件并刷盘，再原子改名到最终位置，引用数保存在media_blob表
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class LocalMediaStore implements MediaStore {
+
+    private static final Pattern BLOB_URL = Pattern.compile("/[\\w/]+/[0-9a-f]{2}/[0-9a-f]{2}/([0-9a-f]{64})(\\.[0-9a-z]{1,8})?");
+
+    private static final Pattern EXTENSION = Pattern.compile("[0-9a-z]{1,8}");
+
+    private static final String TMP_DIR = ".tmp";
+
+    private final MediaBlobMapper mediaBlobMapper;
+
+    private final ImageVariants imageVariants;
+
+    //按哈希分段加锁，保证同一文件的保存和删除不会交错
+    private final ReentrantLock[] locks = newLocks(64);
+
+    @Override
+    public String store(InputStream in, String originalFilename, String dir) throws IOException {
+        Path tmpDir = root().resolve(StrUtil.removePrefix(dir, "/")).resolve(TMP_DIR);
+        Files.createDirectories(tmpDir);
+        Path tmp = Files.createTempFile(tmpDir, "upload", ".part");
+        try {
+            MessageDigest digest = sha256();
+            //边写边计算哈希，只读一遍上传内容
+            try (DigestInputStream digestIn = new DigestInputStream(in, digest)) {
+                Files.copy(digestIn, tmp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return commit(tmp, HexUtil.encodeHexStr(digest.digest()), originalFilename, dir);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @Override
+    public String store(Path file, String originalFilename, String dir) throws IOException {
+        try {
+            MessageDigest digest = sha256();
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream in = Files.newInputStream(file)) {
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+            return commit(file, HexUtil.encodeHexStr(digest.digest()), originalFilename, dir);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Override
+    public boolean acquire(String url) {
+        Matcher matcher = url == null ? null : BLOB_URL.matcher(url);
+        if (matcher == null || !matcher.matches()) {
+            return true;
+        }
+
+        //只给仍有引用的文件加引用，和release在同一把锁内，不会加到正在删除的文件上
+        ReentrantLock lock = lock(matcher.group(1));
+        lock.lock();
+        try {
+            return mediaBlobMapper.acquire(url) == 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void release(String url) {
+        Matcher matcher = url == null ? null : BLOB_URL.matcher(url);
+        //旧的按时间戳命名的文件和默认图片不参与引用计数
+        if (matcher == null || !matcher.matches()) {
+            return;
+        }
+
+        ReentrantLock lock = lock(matcher.group(1));
+        lock.lock();
+        try {
+            mediaBlobMapper.decrease(url);
+            if (mediaBlobMapper.deleteUnreferenced(url) == 1) {
+                Files.deleteIfExists(root().resolve(url.substring(1)));
+                imageVariants.delete(url);
+            }
+        } catch (IOException e) {
+            log.warn("删除媒体文件失败：{}", url, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 刷盘后移动到按哈希命名的位置，已存在相同内容时只增加引用数
+     */
+    private String commit(Path tmp, String hash, String originalFilename, String dir) throws IOException {
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+
+        String url = dir + hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/" + hash + extension(originalFilename);
+        Path target = root().resolve(url.substring(1));
+
+        ReentrantLock lock = lock(hash);
+        lock.lock();
+        try {
+            if (!Files.exists(target)) {
+                Files.createDirectories(target.getParent());
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            }
+            mediaBlobMapper.increase(url);
+        } finally {
+            lock.unlock();
+        }
+        return url;
+    }
+
+    private static String extension(String filename) {
+        String ext = StrUtil.nullToEmpty(FileUtil.extName(filename)).toLowerCase(Locale.ROOT);
+        return EXTENSION.matcher(ext).matches() ? "." + ext : "";
+    }
+
+    private ReentrantLock lock(String hash) {
+        return locks[(hash.hashCode() & 0x7FFFFFFF) % locks.length];
+    }
+
+    private static Path root() {
+        return Paths.get(PathUtils.getClassLoadRootPath());
+    }
+
+    private static ReentrantLock[] newLocks(int size) {
+        ReentrantLock[] locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        return locks;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
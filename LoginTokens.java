@@ -0,0 +1,82 @@
+package com.lhy.music.cache;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.TimedCache;
+import cn.hutool.core.util.HexUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.security.SecureRandom;
+
+/**
+ * 前台用户登录令牌
+ * 令牌只保存在内存里，对应用户id，请求时凭令牌识别用户，不再查询consumer表
+ * 令牌在有效期内每次使用都会续期；服务重启后需要重新登录
+ */
+@Component
+public class LoginTokens {
+
+    /**
+     * 请求头中的令牌名
+     */
+    public static final String HEADER = "X-Token";
+
+    private static final int TOKEN_BYTES = 24;
+
+    private final SecureRandom random = new SecureRandom();
+
+    private TimedCache<String, Integer> tokens;
+
+    @Value("${music.token.ttl:604800000}")
+    private long ttl;
+
+    @PostConstruct
+    public void start() {
+        tokens = CacheUtil.newTimedCache(ttl);
+        //每分钟清理一次过期令牌
+        tokens.schedulePrune(60 * 1000L);
+    }
+
+    @PreDestroy
+    public void stop() {
+        tokens.cancelPruneSchedule();
+    }
+
+    /**
+     * 登录成功后发放令牌
+     *
+     * @param consumerId 用户id
+     * @return 令牌
+     */
+    public String issue(Integer consumerId) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = HexUtil.encodeHexStr(bytes);
+        tokens.put(token, consumerId);
+        return token;
+    }
+
+    /**
+     * 根据令牌取用户id
+     *
+     * @param token 令牌
+     * @return 用户id，令牌无效或过期时返回null
+     */
+    public Integer consumerId(String token) {
+        return token == null ? null : tokens.get(token);
+    }
+
+    /**
+     * 注销令牌
+     *
+     * @param token 令牌
+     */
+    public void revoke(String token) {
+        if (token != null) {
+            tokens.remove(token);
+        }
+    }
+
+}
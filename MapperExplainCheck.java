@@ -0,0 +1,104 @@
+package com.lhy.music.migration;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.scripting.defaults.DefaultParameterHandler;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * mapper索引回归检查
+ * 迁移完成后对按条件查询的mapper语句执行EXPLAIN，有语句退化成全表扫描（type=ALL且没有可用索引）时启动失败
+ * 只看possible_keys，不看优化器最终是否选择索引：小表上优化器可能直接全表扫描，这不算回归
+ * 默认关闭，在CI或预发环境用 music.migration.explain-check=true 开启
+ */
+@Slf4j
+@Component
+@DependsOn("schemaMigrator")
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "music.migration.explain-check", havingValue = "true")
+public class MapperExplainCheck {
+
+    private static final String MAPPER_PACKAGE = "com.lhy.music.mapper.";
+
+    private final SqlSessionFactory sqlSessionFactory;
+
+    private final DataSource dataSource;
+
+    @PostConstruct
+    public void check() throws SQLException {
+        Map<String, Object> statements = statements();
+        Configuration configuration = sqlSessionFactory.getConfiguration();
+        List<String> violations = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection()) {
+            for (Map.Entry<String, Object> entry : statements.entrySet()) {
+                MappedStatement statement = configuration.getMappedStatement(MAPPER_PACKAGE + entry.getKey());
+                BoundSql boundSql = statement.getBoundSql(entry.getValue());
+                try (PreparedStatement ps = connection.prepareStatement("EXPLAIN " + boundSql.getSql())) {
+                    //和执行时一样绑定参数
+                    new DefaultParameterHandler(statement, entry.getValue(), boundSql).setParameters(ps);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            if ("ALL".equals(rs.getString("type")) && rs.getString("possible_keys") == null) {
+                                violations.add(entry.getKey() + "（" + rs.getString("table") + "）");
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        if (!violations.isEmpty()) {
+            throw new IllegalStateException("以下mapper语句没有可用索引，会全表扫描：" + violations);
+        }
+        log.info("mapper索引检查通过，共{}条语句", statements.size());
+    }
+
+    /**
+     * 需要检查的语句和示例参数
+     * 前导%的like查询（likeSongOfName等）本来就无法走索引，由内存索引提供，不在检查范围内
+     */
+    private static Map<String, Object> statements() {
+        Map<String, Object> statements = new LinkedHashMap<>();
+        statements.put("SongMapper.songOfSingerId", 1);
+        statements.put("SongMapper.songOfName", "name");
+        statements.put("CommentMapper.commentOfSongId", 1);
+        statements.put("CommentMapper.commentOfSongListId", 1);
+        statements.put("CommentMapper.commentFeed", params("songId", 1, "hot", true, "limit", 20));
+        statements.put("CollectMapper.collectOfUserId", 1);
+        statements.put("CollectMapper.songIdsOfUserId", 1);
+        statements.put("CollectMapper.existSongId", params("userId", 1, "songId", 1));
+        statements.put("ListSongMapper.listSongOfSongListId", 1);
+        statements.put("ListSongMapper.listSongOfSongListIdPage", params("songListId", 1, "after", 0, "limit", 20));
+        statements.put("ConsumerMapper.getByUsername", "username");
+        statements.put("ConsumerMapper.verifyPassword", params("username", "username", "password", "password"));
+        statements.put("RankMapper.selectScoreSum", 1);
+        statements.put("RankMapper.selectRankNum", 1);
+        return statements;
+    }
+
+    private static Map<String, Object> params(Object... keyValues) {
+        Map<String, Object> params = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            params.put((String) keyValues[i], keyValues[i + 1]);
+        }
+        return params;
+    }
+
+}
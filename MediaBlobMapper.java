@@ -0,0 +1,43 @@
+package com.lhy.music.mapper;
+
+import org.apache.ibatis.annotations.Mapper;
+
+/**
+ * 媒体文件引用计数 数据层
+ */
+@Mapper
+public interface MediaBlobMapper {
+
+    /**
+     * 引用数加一，不存在时新增
+     *
+     * @param path 相对文件地址
+     * @return 影响行数
+     */
+    int increase(String path);
+
+    /**
+     * 已有引用的记录引用数加一
+     *
+     * @param path 相对文件地址
+     * @return 影响行数，为0时文件不存在或正在删除
+     */
+    int acquire(String path);
+
+    /**
+     * 引用数减一
+     *
+     * @param path 相对文件地址
+     * @return 影响行数
+     */
+    int decrease(String path);
+
+    /**
+     * 删除引用数为0的记录
+     *
+     * @param path 相对文件地址
+     * @return 影响行数，为1时可以删除文件
+     */
+    int deleteUnreferenced(String path);
+
+}
@@ -0,0 +1,49 @@
+package com.lhy.music.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * 媒体文件存储
+ * 返回的地址是存储到数据库里的相对文件地址，如 /song/ab/cd/abcd....mp3
+ */
+public interface MediaStore {
+
+    /**
+     * 保存上传的文件
+     *
+     * @param in               文件内容
+     * @param originalFilename 原文件名，用于取扩展名
+     * @param dir              目录，如 /song/
+     * @return 相对文件地址
+     */
+    String store(InputStream in, String originalFilename, String dir) throws IOException;
+
+    /**
+     * 保存已经写好的本地文件（如分片上传的暂存文件），原文件会被移走或删除
+     *
+     * @param file             本地文件
+     * @param originalFilename 原文件名，用于取扩展名
+     * @param dir              目录，如 /song/
+     * @return 相对文件地址
+     */
+    String store(Path file, String originalFilename, String dir) throws IOException;
+
+    /**
+     * 为客户端传来的已有地址增加一次引用，与release配对使用
+     * 不是由本存储保存的地址（旧文件、默认图片）直接返回true
+     *
+     * @param url 相对文件地址
+     * @return 是否可以使用，本存储的地址对应的文件已不存在时返回false
+     */
+    boolean acquire(String url);
+
+    /**
+     * 释放一次引用，没有引用时删除文件；不是由本存储保存的地址会被忽略
+     *
+     * @param url 相对文件地址
+     */
+    void release(String url);
+
+}
@@ -0,0 +1,23 @@
+package com.lhy.music.entity.vo;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 批量查询结果
+ */
+@Data
+public class MultiGetVo<T> {
+
+    /**
+     * 查到的数据，按请求id的顺序排列
+     */
+    private List<T> items;
+
+    /**
+     * 不存在的id
+     */
+    private List<Integer> missing;
+
+}
@@ -0,0 +1,220 @@
+package com.lhy.music.search;
+
+import cn.hutool.core.util.StrUtil;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * 基于字符二元组（bigram）的内存倒排索引
+ * 中文按字切分，查询时先用二元组倒排求交集得到候选，再校验是否包含查询串，结果与 like '%x%' 一致
+ *
+ * @param <T> 被索引的实体类型
+ */
+public class NgramIndex<T> {
+
+    private final Function<T, Integer> idGetter;
+
+    private final Function<T, String> textGetter;
+
+    //主键 -> 实体
+    private final Map<Integer, T> docs = new HashMap<>();
+
+    //主键 -> 归一化后的文本
+    private final Map<Integer, String> texts = new HashMap<>();
+
+    //单字或二元组 -> 主键集合
+    private final Map<String, Set<Integer>> postings = new HashMap<>();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * @param idGetter   主键获取方法
+     * @param textGetter 被索引文本获取方法
+     */
+    public NgramIndex(Function<T, Integer> idGetter, Function<T, String> textGetter) {
+        this.idGetter = idGetter;
+        this.textGetter = textGetter;
+    }
+
+    /**
+     * 清空后重新建立索引
+     *
+     * @param list 全部实体
+     */
+    public void rebuild(Collection<T> list) {
+        lock.writeLock().lock();
+        try {
+            docs.clear();
+            texts.clear();
+            postings.clear();
+            for (T doc : list) {
+                add(doc);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 新增或更新实体
+     *
+     * @param doc 实体
+     */
+    public void put(T doc) {
+        lock.writeLock().lock();
+        try {
+            delete(idGetter.apply(doc));
+            add(doc);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 删除实体
+     *
+     * @param id 主键
+     */
+    public void remove(Integer id) {
+        lock.writeLock().lock();
+        try {
+            delete(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 查询包含关键字的实体
+     * 排序：完全相同 > 出现位置靠前（前缀优先） > 文本较短 > 主键
+     *
+     * @param keyword 关键字
+     * @return 实体列表
+     */
+    public List<T> search(String keyword) {
+        String query = normalize(keyword);
+        if (query.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        lock.readLock().lock();
+        try {
+            Set<Integer> candidates = null;
+            for (String gram : grams(query, query.length() == 1)) {
+                Set<Integer> ids = postings.get(gram);
+                if (ids == null) {
+                    return new ArrayList<>();
+                }
+                if (candidates == null) {
+                    candidates = new HashSet<>(ids);
+                } else {
+                    candidates.retainAll(ids);
+                }
+                if (candidates.isEmpty()) {
+                    return new ArrayList<>();
+                }
+            }
+
+            List<Integer> matched = new ArrayList<>();
+            for (Integer id : candidates) {
+                if (texts.get(id).contains(query)) {
+                    matched.add(id);
+                }
+            }
+            matched.sort(Comparator
+                    .comparingInt((Integer id) -> texts.get(id).equals(query) ? 0 : 1)
+                    .thenComparingInt(id -> texts.get(id).indexOf(query))
+                    .thenComparingInt(id -> texts.get(id).length())
+                    .thenComparingInt(id -> id));
+
+            List<T> result = new ArrayList<>(matched.size());
+            for (Integer id : matched) {
+                result.add(docs.get(id));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 当前索引的实体数
+     *
+     * @return 实体数
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void add(T doc) {
+        Integer id = idGetter.apply(doc);
+        if (id == null) {
+            return;
+        }
+        String text = normalize(textGetter.apply(doc));
+        docs.put(id, doc);
+        texts.put(id, text);
+        for (String gram : grams(text, true)) {
+            postings.computeIfAbsent(gram, k -> new HashSet<>()).add(id);
+        }
+    }
+
+    private void delete(Integer id) {
+        docs.remove(id);
+        String text = texts.remove(id);
+        if (text == null) {
+            return;
+        }
+        for (String gram : grams(text, true)) {
+            Set<Integer> ids = postings.get(gram);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    postings.remove(gram);
+                }
+            }
+        }
+    }
+
+    /**
+     * 切分单字和二元组
+     *
+     * @param text     归一化后的文本
+     * @param unigrams 是否包含单字（建索引时需要，查询多字时只用二元组）
+     * @return 切分结果
+     */
+    private static Set<String> grams(String text, boolean unigrams) {
+        Set<String> grams = new LinkedHashSet<>();
+        int[] codePoints = text.codePoints().toArray();
+        for (int i = 0; i < codePoints.length; i++) {
+            if (unigrams) {
+                grams.add(new String(codePoints, i, 1));
+            }
+            if (i + 1 < codePoints.length) {
+                grams.add(new String(codePoints, i, 2));
+            }
+        }
+        return grams;
+    }
+
+    private static String normalize(String text) {
+        return StrUtil.nullToEmpty(text).trim().toLowerCase(Locale.ROOT);
+    }
+
+}
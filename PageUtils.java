@@ -0,0 +1,67 @@
+package com.lhy.music.utils;
+
+import com.lhy.music.entity.vo.CursorPageVo;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 游标分页工具
+ * 按主键向后翻页（where id > after order by id limit n），不使用offset
+ */
+public class PageUtils {
+
+    /**
+     * 默认每页条数
+     */
+    public static final int DEFAULT_LIMIT = 20;
+
+    /**
+     * 每页最大条数
+     */
+    public static final int MAX_LIMIT = 100;
+
+    private PageUtils() {
+    }
+
+    /**
+     * 规范每页条数，不超过MAX_LIMIT
+     *
+     * @param limit 前端传入的条数
+     * @return 实际条数
+     */
+    public static int limit(Integer limit) {
+        if (limit == null || limit <= 0) {
+            return DEFAULT_LIMIT;
+        }
+        return Math.min(limit, MAX_LIMIT);
+    }
+
+    /**
+     * 规范游标，为空时从头开始
+     *
+     * @param after 前端传入的游标
+     * @return 实际游标
+     */
+    public static int after(Integer after) {
+        return after == null || after < 0 ? 0 : after;
+    }
+
+    /**
+     * 组装分页结果，取满一页时用最后一条的主键作为下一页游标
+     *
+     * @param list     当前页数据
+     * @param limit    每页条数
+     * @param idGetter 主键获取方法
+     * @return 分页结果
+     */
+    public static <T> CursorPageVo<T> page(List<T> list, int limit, Function<T, Integer> idGetter) {
+        CursorPageVo<T> page = new CursorPageVo<>();
+        page.setList(list);
+        if (list.size() >= limit) {
+            page.setNext(idGetter.apply(list.get(list.size() - 1)));
+        }
+        return page;
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.lhy.music.utils;
+
+import cn.hutool.core.util.StrUtil;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * 密码工具
+ * 密码以 pbkdf2$迭代次数$盐$哈希 的格式保存，兼容旧数据里的明文密码
+ */
+public class PasswordUtils {
+
+    private static final String PREFIX = "pbkdf2$";
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+
+    private static final int ITERATIONS = 10000;
+
+    private static final int SALT_BYTES = 16;
+
+    private static final int HASH_BITS = 256;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private PasswordUtils() {
+    }
+
+    /**
+     * 生成加盐哈希
+     *
+     * @param password 明文密码
+     * @return 保存到数据库的密码
+     */
+    public static String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        byte[] hash = pbkdf2(password, salt, ITERATIONS);
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return PREFIX + ITERATIONS + "$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(hash);
+    }
+
+    /**
+     * 校验密码
+     *
+     * @param password 明文密码
+     * @param stored   数据库中的密码
+     * @return 是否一致
+     */
+    public static boolean matches(String password, String stored) {
+        if (password == null || stored == null) {
+            return false;
+        }
+        //旧数据是明文
+        if (!isHashed(stored)) {
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+        }
+        String[] parts = StrUtil.splitToArray(stored, '$');
+        if (parts.length != 4) {
+            return false;
+        }
+        try {
+            int iterations = Integer.parseInt(parts[1]);
+            byte[] salt = Base64.getDecoder().decode(parts[2]);
+            byte[] expected = Base64.getDecoder().decode(parts[3]);
+            return MessageDigest.isEqual(expected, pbkdf2(password, salt, iterations));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 是否需要重新哈希（明文或迭代次数过低）
+     */
+    public static boolean needsRehash(String stored) {
+        return !isHashed(stored) || !stored.startsWith(PREFIX + ITERATIONS + "$");
+    }
+
+    /**
+     * 是否已经是哈希后的格式
+     */
+    public static boolean isHashed(String stored) {
+        return stored.startsWith(PREFIX);
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+}
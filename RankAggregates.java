@@ -0,0 +1,75 @@
+package com.lhy.music.cache;
+
+import com.lhy.music.entity.vo.RankVo;
+import com.lhy.music.service.RankService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 歌单评分聚合
+ * 启动时从rank表按歌单、分数汇总一次，之后由 /rank/add 增量累加，查询不再访问数据库
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RankAggregates {
+
+    private final RankService rankService;
+
+    private final Map<Integer, RankStats> statsMap = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void load() {
+        List<Map<String, Object>> rows = rankService.scoreHistogram();
+        for (Map<String, Object> row : rows) {
+            Integer songListId = ((Number) row.get("songListId")).intValue();
+            Number score = (Number) row.get("score");
+            long num = ((Number) row.get("num")).longValue();
+            stats(songListId).add(score == null ? null : score.intValue(), num);
+        }
+        log.info("歌单评分聚合加载完成，共{}个歌单", statsMap.size());
+    }
+
+    /**
+     * 新增评价成功后累加
+     *
+     * @param songListId 歌单id
+     * @param score      分数
+     */
+    public void add(Integer songListId, Integer score) {
+        stats(songListId).add(score, 1);
+    }
+
+    /**
+     * 平均分（取整）
+     *
+     * @param songListId 歌单id
+     * @return 平均分
+     */
+    public int rank(Integer songListId) {
+        RankStats rankStats = statsMap.get(songListId);
+        return rankStats == null ? 0 : rankStats.rank();
+    }
+
+    /**
+     * 评分统计
+     *
+     * @param songListId 歌单id
+     * @return 评分统计
+     */
+    public RankVo detail(Integer songListId) {
+        RankStats rankStats = statsMap.get(songListId);
+        return rankStats == null ? new RankStats(songListId).snapshot() : rankStats.snapshot();
+    }
+
+    private RankStats stats(Integer songListId) {
+        return statsMap.computeIfAbsent(songListId, RankStats::new);
+    }
+
+}
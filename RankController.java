@@ -1,7 +1,9 @@
 package com.lhy.music.controller;
 
+import com.lhy.music.cache.RankAggregates;
 import com.lhy.music.common.R;
 import com.lhy.music.entity.po.Rank;
+import com.lhy.music.entity.vo.RankVo;
 import com.lhy.music.service.RankService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -20,6 +22,8 @@ public class RankController {
 
     private final RankService rankService;
 
+    private final RankAggregates rankAggregates;
+
     /**
      * 新增评价
      *
@@ -36,6 +40,7 @@ public class RankController {
         rank.setScore(score);
 
         if (rankService.insert(rank)) {
+            rankAggregates.add(songListId, score);
             return R.ok("评价成功");
         }
 
@@ -50,7 +55,18 @@ public class RankController {
      */
     @GetMapping(value = "/rank")
     public Integer rankOfSongListId(String songListId) {
-        return rankService.rankOfSongListId(Integer.parseInt(songListId));
+        return rankAggregates.rank(Integer.parseInt(songListId));
+    }
+
+    /**
+     * 歌单评分详情
+     *
+     * @param songListId 歌单id
+     * @return 总分、人数、平均分和各分数人数
+     */
+    @GetMapping(value = "/rank/detail")
+    public RankVo rankDetail(Integer songListId) {
+        return rankAggregates.detail(songListId);
     }
 
 }
@@ -0,0 +1,64 @@
+package com.lhy.music.cache;
+
+import com.lhy.music.entity.vo.RankVo;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 单个歌单的评分聚合
+ */
+public class RankStats {
+
+    private final Integer songListId;
+
+    private long scoreSum;
+
+    private long rankNum;
+
+    private final Map<Integer, Long> histogram = new TreeMap<>();
+
+    public RankStats(Integer songListId) {
+        this.songListId = songListId;
+    }
+
+    /**
+     * 累加评价
+     *
+     * @param score 分数，为空时只计人数
+     * @param num   人数
+     */
+    public synchronized void add(Integer score, long num) {
+        rankNum += num;
+        if (score != null) {
+            scoreSum += (long) score * num;
+            histogram.merge(score, num, Long::sum);
+        }
+    }
+
+    /**
+     * 平均分（取整）
+     *
+     * @return 平均分，没有评价时为0
+     */
+    public synchronized int rank() {
+        return rankNum <= 0 ? 0 : (int) (scoreSum / rankNum);
+    }
+
+    /**
+     * 当前统计快照
+     *
+     * @return 评分统计
+     */
+    public synchronized RankVo snapshot() {
+        RankVo rankVo = new RankVo();
+        rankVo.setSongListId(songListId);
+        rankVo.setScoreSum(scoreSum);
+        rankVo.setRankNum(rankNum);
+        rankVo.setRank(rank());
+        rankVo.setAverage(rankNum <= 0 ? 0D : (double) scoreSum / rankNum);
+        rankVo.setHistogram(new TreeMap<>(histogram));
+        return rankVo;
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.lhy.music.entity.vo;
+
+import lombok.Data;
+
+import java.util.Map;
+
+/**
+ * 歌单评分统计
+ */
+@Data
+public class RankVo {
+
+    /**
+     * 歌单id
+     */
+    private Integer songListId;
+
+    /**
+     * 总分
+     */
+    private Long scoreSum;
+
+    /**
+     * 评价人数
+     */
+    private Long rankNum;
+
+    /**
+     * 平均分（取整，与 /rank 接口一致）
+     */
+    private Integer rank;
+
+    /**
+     * 平均分
+     */
+    private Double average;
+
+    /**
+     * 各分数的评价人数
+     */
+    private Map<Integer, Long> histogram;
+
+}
@@ -0,0 +1,156 @@
+package com.lhy.music.cache;
+
+import cn.hutool.core.util.StrUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lhy.music.cache.CatalogVersions.Catalog;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 接口响应字节缓存
+ * 热门列表接口的返回值序列化成JSON后连同gzip压缩结果一起缓存，之后的请求直接返回字节，不再序列化和压缩
+ * 缓存key包含数据版本号，写操作递增版本后旧条目不会再被命中，由LRU淘汰
+ * 按条目数和总字节数（JSON加gzip）两个上限淘汰，大响应不会让缓存占用的内存失控
+ */
+@Component
+@RequiredArgsConstructor
+public class ResponseBodyCache {
+
+    private static final MediaType JSON_UTF8 = new MediaType(MediaType.APPLICATION_JSON, StandardCharsets.UTF_8);
+
+    private final ObjectMapper objectMapper;
+
+    private final CatalogVersions catalogVersions;
+
+    //按访问顺序排列，最久未访问的在最前面，读写都在bodies锁内
+    private final LinkedHashMap<String, Body> bodies = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long totalBytes;
+
+    @Value("${music.response-cache.capacity:256}")
+    private int capacity;
+
+    /**
+     * 缓存的响应总字节数上限
+     */
+    @Value("${music.response-cache.max-bytes:33554432}")
+    private long maxBytes;
+
+    /**
+     * 超过该大小（字节）的响应不缓存
+     */
+    @Value("${music.response-cache.max-body-size:2097152}")
+    private int maxBodySize;
+
+    /**
+     * 返回缓存的响应，未缓存时调用loader查询并序列化
+     * 客户端缓存仍有效时返回null（响应已设为304）
+     *
+     * @param key        接口和参数组成的key
+     * @param webRequest 请求
+     * @param loader     查询方法
+     * @param catalogs   返回内容涉及的数据类型
+     * @return 响应
+     */
+    public ResponseEntity<byte[]> respond(String key, ServletWebRequest webRequest, Supplier<Object> loader, Catalog... catalogs) {
+        if (catalogVersions.notModified(webRequest, catalogs)) {
+            return null;
+        }
+
+        String etag = catalogVersions.etag(catalogs);
+        String cacheKey = key + etag;
+        Body body = get(cacheKey);
+        if (body == null) {
+            body = serialize(loader.get());
+            if (body.json.length <= maxBodySize) {
+                put(cacheKey, body);
+            }
+        }
+
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+                .contentType(JSON_UTF8)
+                .cacheControl(CacheControl.noCache())
+                .eTag(etag)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        //客户端支持gzip时直接返回压缩好的字节，容器看到Content-Encoding后不会再压缩
+        String acceptEncoding = webRequest.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (body.gzip != null && StrUtil.containsIgnoreCase(acceptEncoding, "gzip")) {
+            return builder.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(body.gzip);
+        }
+        return builder.body(body.json);
+    }
+
+    private Body get(String key) {
+        synchronized (bodies) {
+            return bodies.get(key);
+        }
+    }
+
+    private void put(String key, Body body) {
+        synchronized (bodies) {
+            Body old = bodies.put(key, body);
+            if (old != null) {
+                totalBytes -= old.size();
+            }
+            totalBytes += body.size();
+            //从最久未访问的开始淘汰，直到条目数和总字节数都不超过上限
+            Iterator<Map.Entry<String, Body>> iterator = bodies.entrySet().iterator();
+            while ((bodies.size() > capacity || totalBytes > maxBytes) && iterator.hasNext()) {
+                totalBytes -= iterator.next().getValue().size();
+                iterator.remove();
+            }
+        }
+    }
+
+    private Body serialize(Object value) {
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(value);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, json.length / 4));
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                gzip.write(json);
+            }
+            byte[] compressed = out.toByteArray();
+            //压缩后没有变小的不保存gzip
+            return new Body(json, compressed.length < json.length ? compressed : null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 缓存的响应体
+     */
+    private static class Body {
+
+        private final byte[] json;
+
+        private final byte[] gzip;
+
+        private Body(byte[] json, byte[] gzip) {
+            this.json = json;
+            this.gzip = gzip;
+        }
+
+        private long size() {
+            return json.length + (gzip == null ? 0 : gzip.length);
+        }
+
+    }
+
+}
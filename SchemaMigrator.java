@@ -0,0 +1,166 @@
+package com.lhy.music.migration;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StreamUtils;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 数据库版本迁移
+ * 启动时按版本号顺序执行 V{版本}__{说明}.sql 中尚未执行的脚本，执行记录保存在schema_version表
+ * 需要依赖新表结构的组件用 @DependsOn("schemaMigrator") 保证在迁移之后初始化
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SchemaMigrator {
+
+    private static final Pattern SCRIPT_NAME = Pattern.compile("V(\\d+)__(.+)\\.sql");
+
+    private static final String LOCK_NAME = "music_schema_migration";
+
+    private final DataSource dataSource;
+
+    @Value("${music.migration.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 脚本位置，多个用逗号分隔；打包后在classpath的db/migration下，源码运行时读取 数据库/migration
+     */
+    @Value("${music.migration.locations:classpath*:db/migration/*.sql,file:数据库/migration/*.sql}")
+    private String locations;
+
+    @PostConstruct
+    public void migrate() throws IOException, SQLException {
+        if (!enabled) {
+            return;
+        }
+
+        TreeMap<Integer, Resource> scripts = findScripts();
+        try (Connection connection = dataSource.getConnection()) {
+            //同一个连接上执行，保证多实例同时启动时只有一个在迁移
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(new SingleConnectionDataSource(connection, true));
+            Integer locked = jdbcTemplate.queryForObject("select GET_LOCK(?, 60)", Integer.class, LOCK_NAME);
+            if (locked == null || locked != 1) {
+                throw new IllegalStateException("获取数据库迁移锁失败");
+            }
+            try {
+                apply(jdbcTemplate, scripts);
+            } finally {
+                jdbcTemplate.queryForObject("select RELEASE_LOCK(?)", Integer.class, LOCK_NAME);
+            }
+        }
+    }
+
+    private void apply(JdbcTemplate jdbcTemplate, TreeMap<Integer, Resource> scripts) throws IOException {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS `schema_version` (" +
+                "`version` int(11) NOT NULL COMMENT '版本号'," +
+                "`description` varchar(255) DEFAULT NULL COMMENT '说明'," +
+                "`checksum` char(32) DEFAULT NULL COMMENT '脚本MD5'," +
+                "`installed_on` datetime DEFAULT NULL COMMENT '执行时间'," +
+                "PRIMARY KEY (`version`) USING BTREE" +
+                ") ENGINE=InnoDB DEFAULT CHARSET=utf8 ROW_FORMAT=DYNAMIC COMMENT='数据库版本'");
+
+        Map<Integer, String> applied = new HashMap<>();
+        jdbcTemplate.query("select version, checksum from schema_version", rs -> {
+            applied.put(rs.getInt("version"), rs.getString("checksum"));
+        });
+
+        for (Map.Entry<Integer, Resource> entry : scripts.entrySet()) {
+            Integer version = entry.getKey();
+            Resource resource = entry.getValue();
+            String sql = read(resource);
+            String checksum = DigestUtils.md5DigestAsHex(sql.getBytes(StandardCharsets.UTF_8));
+
+            if (applied.containsKey(version)) {
+                if (!checksum.equals(applied.get(version))) {
+                    log.warn("数据库迁移脚本{}在执行后被修改过", resource.getFilename());
+                }
+                continue;
+            }
+
+            log.info("执行数据库迁移脚本{}", resource.getFilename());
+            for (String statement : split(sql)) {
+                jdbcTemplate.execute(statement);
+            }
+            Matcher matcher = SCRIPT_NAME.matcher(resource.getFilename());
+            String description = matcher.matches() ? matcher.group(2).replace('_', ' ') : null;
+            jdbcTemplate.update("insert into schema_version (version, description, checksum, installed_on) values (?, ?, ?, now())",
+                    version, description, checksum);
+        }
+    }
+
+    /**
+     * 按版本号收集脚本，同一版本在多个位置出现时取第一个
+     */
+    private TreeMap<Integer, Resource> findScripts() throws IOException {
+        PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
+        TreeMap<Integer, Resource> scripts = new TreeMap<>();
+        for (String location : StrUtil.splitTrim(locations, ',')) {
+            for (Resource resource : resolver.getResources(location)) {
+                String filename = resource.getFilename();
+                if (filename == null) {
+                    continue;
+                }
+                Matcher matcher = SCRIPT_NAME.matcher(filename);
+                if (matcher.matches()) {
+                    scripts.putIfAbsent(Integer.parseInt(matcher.group(1)), resource);
+                }
+            }
+        }
+        return scripts;
+    }
+
+    private static String read(Resource resource) throws IOException {
+        try (InputStream in = resource.getInputStream()) {
+            return StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * 按行尾分号拆分语句，忽略 -- 注释行
+     */
+    private static List<String> split(String sql) {
+        List<String> statements = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (String line : sql.split("\r?\n")) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("--")) {
+                continue;
+            }
+            current.append(line).append('\n');
+            if (trimmed.endsWith(";")) {
+                String statement = current.toString().trim();
+                statements.add(statement.substring(0, statement.length() - 1));
+                current.setLength(0);
+            }
+        }
+        if (current.toString().trim().length() > 0) {
+            statements.add(current.toString().trim());
+        }
+        return statements;
+    }
+
+}
@@ -0,0 +1,162 @@
+package com.lhy.music.search;
+
+import com.lhy.music.entity.po.Singer;
+import com.lhy.music.entity.po.Song;
+import com.lhy.music.entity.po.SongList;
+import com.lhy.music.service.SingerService;
+import com.lhy.music.service.SongListService;
+import com.lhy.music.service.SongService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+
+/**
+ * 歌曲名、歌手名、歌单标题的搜索索引，以及按列过滤用的列式快照
+ * 启动时全量构建，控制层写操作成功后调用refresh/remove增量更新
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SearchIndexes {
+
+    private final SongService songService;
+
+    private final SingerService singerService;
+
+    private final SongListService songListService;
+
+    private final ColumnarCatalog columnarCatalog;
+
+    private final NgramIndex<Song> songNameIndex = new NgramIndex<>(Song::getId, Song::getName);
+
+    private final NgramIndex<Singer> singerNameIndex = new NgramIndex<>(Singer::getId, Singer::getName);
+
+    private final NgramIndex<SongList> songListTitleIndex = new NgramIndex<>(SongList::getId, SongList::getTitle);
+
+    /**
+     * 启动时全量构建索引
+     */
+    @PostConstruct
+    public void rebuild() {
+        List<Song> songs = songService.allSong();
+        List<Singer> singers = singerService.allSinger();
+        List<SongList> songLists = songListService.allSongList();
+        songNameIndex.rebuild(songs);
+        singerNameIndex.rebuild(singers);
+        songListTitleIndex.rebuild(songLists);
+        columnarCatalog.rebuild(songs, singers, songLists);
+        log.info("搜索索引构建完成，歌曲{}首，歌手{}位，歌单{}个",
+                songNameIndex.size(), singerNameIndex.size(), songListTitleIndex.size());
+    }
+
+    /**
+     * 按歌名模糊查询
+     *
+     * @param name 关键字
+     * @return 歌曲列表（不含歌词）
+     */
+    public List<Song> likeSongOfName(String name) {
+        return songNameIndex.search(name);
+    }
+
+    /**
+     * 按歌手名模糊查询
+     *
+     * @param name 关键字
+     * @return 歌手列表
+     */
+    public List<Singer> singerOfName(String name) {
+        return singerNameIndex.search(name);
+    }
+
+    /**
+     * 按歌单标题模糊查询
+     *
+     * @param title 关键字
+     * @return 歌单列表
+     */
+    public List<SongList> likeTitle(String title) {
+        return songListTitleIndex.search(title);
+    }
+
+    /**
+     * 歌曲新增或修改后重新索引
+     *
+     * @param id 歌曲id
+     */
+    public void refreshSong(Integer id) {
+        Song song = songService.selectByPrimaryKey(id);
+        if (song == null) {
+            removeSong(id);
+            return;
+        }
+        //索引只保存列表字段，不常驻歌词
+        song.setLyric(null);
+        songNameIndex.put(song);
+        columnarCatalog.putSong(song);
+    }
+
+    /**
+     * 歌曲删除后移除索引
+     *
+     * @param id 歌曲id
+     */
+    public void removeSong(Integer id) {
+        songNameIndex.remove(id);
+        columnarCatalog.removeSong(id);
+    }
+
+    /**
+     * 歌手新增或修改后重新索引
+     *
+     * @param id 歌手id
+     */
+    public void refreshSinger(Integer id) {
+        Singer singer = singerService.selectByPrimaryKey(id);
+        if (singer == null) {
+            removeSinger(id);
+            return;
+        }
+        singerNameIndex.put(singer);
+        columnarCatalog.putSinger(singer);
+    }
+
+    /**
+     * 歌手删除后移除索引
+     *
+     * @param id 歌手id
+     */
+    public void removeSinger(Integer id) {
+        singerNameIndex.remove(id);
+        columnarCatalog.removeSinger(id);
+    }
+
+    /**
+     * 歌单新增或修改后重新索引
+     *
+     * @param id 歌单id
+     */
+    public void refreshSongList(Integer id) {
+        SongList songList = songListService.selectByPrimaryKey(id);
+        if (songList == null) {
+            removeSongList(id);
+            return;
+        }
+        songListTitleIndex.put(songList);
+        columnarCatalog.putSongList(songList);
+    }
+
+    /**
+     * 歌单删除后移除索引
+     *
+     * @param id 歌单id
+     */
+    public void removeSongList(Integer id) {
+        songListTitleIndex.remove(id);
+        columnarCatalog.removeSongList(id);
+    }
+
+}
@@ -3,19 +3,33 @@ package com.lhy.music.controller;
 import cn.hutool.core.date.DatePattern;
 import cn.hutool.core.date.DateTime;
 import cn.hutool.core.date.DateUtil;
+import cn.hutool.core.util.StrUtil;
 import com.alibaba.fastjson.JSONObject;
+import com.lhy.music.cache.CatalogVersions.Catalog;
+import com.lhy.music.cache.CatalogVersions;
+import com.lhy.music.cache.EntityCache;
+import com.lhy.music.cache.ResponseBodyCache;
 import com.lhy.music.common.R;
 import com.lhy.music.entity.po.Singer;
+import com.lhy.music.entity.vo.MultiGetVo;
 import com.lhy.music.entity.vo.UploadPicVo;
+import com.lhy.music.search.ColumnarCatalog;
+import com.lhy.music.search.SearchIndexes;
 import com.lhy.music.service.SingerService;
-import com.lhy.music.utils.PathUtils;
+import com.lhy.music.storage.ChunkedUploads;
+import com.lhy.music.storage.ImageVariants;
+import com.lhy.music.storage.MediaStore;
+import com.lhy.music.utils.BatchUtils;
+import com.lhy.music.utils.PageUtils;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.Set;
 
 /**
  * 歌手 控制层
@@ -28,6 +42,22 @@ public class SingerController {
 
     private final SingerService singerService;
 
+    private final ChunkedUploads chunkedUploads;
+
+    private final MediaStore mediaStore;
+
+    private final ImageVariants imageVariants;
+
+    private final EntityCache<Integer, Singer> singerCache;
+
+    private final SearchIndexes searchIndexes;
+
+    private final ColumnarCatalog columnarCatalog;
+
+    private final CatalogVersions catalogVersions;
+
+    private final ResponseBodyCache responseBodyCache;
+
     /**
      * 添加歌手
      *
@@ -48,6 +78,10 @@ public class SingerController {
             String location,
             String introduction
     ) {
+        //图片指向按内容保存的文件时占用一次引用，删除歌手时释放
+        if (!mediaStore.acquire(pic)) {
+            return R.error("图片不存在");
+        }
         //把生日转换成Date格式
         DateTime birthDate = DateUtil.parse(birth, DatePattern.NORM_DATE_PATTERN);
         //保存到歌手的对象中
@@ -60,8 +94,11 @@ public class SingerController {
         singer.setIntroduction(introduction);
         //保存成功
         if (singerService.insert(singer)) {
+            searchIndexes.refreshSinger(singer.getId());
+            catalogVersions.bump(Catalog.SINGER);
             return R.ok("添加成功");
         }
+        mediaStore.release(pic);
         return R.error("添加失败");
     }
 
@@ -96,6 +133,9 @@ public class SingerController {
         singer.setIntroduction(introduction);
         //保存成功
         if (singerService.update(singer)) {
+            singerCache.invalidate(singer.getId());
+            searchIndexes.refreshSinger(singer.getId());
+            catalogVersions.bump(Catalog.SINGER);
             return R.ok("修改成功");
         }
         return R.error("修改失败");
@@ -109,50 +149,93 @@ public class SingerController {
      */
     @GetMapping(value = "/delete")
     public Boolean deleteSinger(Integer id) {
-        return singerService.delete(id);
+        Singer old = singerService.selectByPrimaryKey(id);
+        boolean deleted = singerService.delete(id);
+        singerCache.invalidate(id);
+        searchIndexes.removeSinger(id);
+        catalogVersions.bump(Catalog.SINGER);
+        if (deleted && old != null) {
+            mediaStore.release(old.getPic());
+        }
+        return deleted;
     }
 
     /**
      * 查询歌手
      *
-     * @param id 歌手id
+     * @param id         歌手id
+     * @param webRequest 请求
      * @return 歌手
      */
     @GetMapping(value = "/selectByP rimaryKey")
-    public Singer selectByPrimaryKey(Integer id) {
-        return singerService.selectByPrimaryKey(id);
+    public Singer selectByPrimaryKey(Integer id, ServletWebRequest webRequest) {
+        if (catalogVersions.notModified(webRequest, Catalog.SINGER)) {
+            return null;
+        }
+        return singerCache.get(id, singerService::selectByPrimaryKey);
+    }
+
+    /**
+     * 批量查询歌手，已缓存的不再查库，其余一次 in 查询
+     *
+     * @param ids 歌手id，逗号分隔，最多100个
+     * @return 按请求顺序排列的歌手和不存在的id
+     */
+    @GetMapping(value = "/selectByIds")
+    public R<MultiGetVo<Singer>> selectByIds(@RequestParam List<Integer> ids) {
+        Set<Integer> singerIds = BatchUtils.ids(ids);
+        if (singerIds == null) {
+            return R.error("id数量应在1到" + BatchUtils.MAX_IDS + "之间");
+        }
+        return R.ok(BatchUtils.multiGet(singerIds, singerCache.getAll(singerIds, singerService::selectByIds, Singer::getId)));
     }
 
     /**
      * 查询所有歌手
+     * 带after或limit参数时按主键游标分页，响应字节按数据版本缓存
      *
+     * @param after      游标（上一页最后一条的主键）
+     * @param limit      每页条数
+     * @param webRequest 请求
      * @return 歌手列表
      */
     @GetMapping(value = "/allSinger")
-    public List<Singer> allSinger() {
-        return singerService.allSinger();
+    public ResponseEntity<byte[]> allSinger(Integer after, Integer limit, ServletWebRequest webRequest) {
+        //不带分页参数时保持原来的全量返回
+        if (after == null && limit == null) {
+            return responseBodyCache.respond("singer:all", webRequest, singerService::allSinger, Catalog.SINGER);
+        }
+        int size = PageUtils.limit(limit);
+        int from = PageUtils.after(after);
+        return responseBodyCache.respond("singer:all:" + from + ":" + size, webRequest,
+                () -> PageUtils.page(singerService.allSingerPage(from, size), size, Singer::getId), Catalog.SINGER);
     }
 
     /**
      * 根据歌手名字模糊查询列表
      *
-     * @param name 歌手名称
+     * @param name       歌手名称
+     * @param webRequest 请求
      * @return 歌手列表
      */
     @GetMapping(value = "/singerOfName")
-    public List<Singer> singerOfName(String name) {
-        return singerService.singerOfName("%" + name + "%");
+    public List<Singer> singerOfName(String name, ServletWebRequest webRequest) {
+        if (catalogVersions.notModified(webRequest, Catalog.SINGER)) {
+            return null;
+        }
+        return searchIndexes.singerOfName(name);
     }
 
     /**
-     * 根据性别查询
+     * 根据性别查询，响应字节按数据版本缓存
      *
-     * @param sex 性别
+     * @param sex        性别
+     * @param webRequest 请求
      * @return 歌手列表
      */
     @GetMapping(value = "/singerOfSex")
-    public List<Singer> singerOfSex(Integer sex) {
-        return singerService.singerOfSex(sex);
+    public ResponseEntity<byte[]> singerOfSex(Integer sex, ServletWebRequest webRequest) {
+        return responseBodyCache.respond("singer:sex:" + sex, webRequest, () -> columnarCatalog.singerOfSex(sex), Catalog.SINGER);
     }
 
     /**
@@ -160,43 +243,47 @@ public class SingerController {
      *
      * @param avatorFile 头像文件
      * @param id         更是id
+     * @param uploadId   分片上传id，与file二选一
      * @return 更新结果
      */
     @PostMapping(value = "/updateSingerPic")
     public R<UploadPicVo> updateSingerPic(
-            @RequestParam("file") MultipartFile avatorFile,
-            @RequestParam("id") Integer id
+            @RequestParam(value = "file", required = false) MultipartFile avatorFile,
+            @RequestParam("id") Integer id,
+            String uploadId
     ) throws IOException {
         JSONObject jsonObject = new JSONObject();
 
-        if (avatorFile.isEmpty()) {
-            return R.error("文件上传失败");
-        }
+        String storeAvatorPath;
+        if (StrUtil.isNotBlank(uploadId)) {
+            //分片上传已全部到齐，保存到目标目录
+            storeAvatorPath = chunkedUploads.complete(uploadId, "/img/singerPic/");
+            if (storeAvatorPath == null) {
+                return R.error("分片上传未完成");
+            }
+        } else {
+            if (avatorFile == null || avatorFile.isEmpty()) {
+                return R.error("文件上传失败");
+            }
 
-        //文件名=当前时间到毫秒+原来的文件名
-        String fileName = System.currentTimeMillis() + avatorFile.getOriginalFilename();
-        //文件路径
-        String filePath = PathUtils.getClassLoadRootPath() + "/img/singerPic/";
-        //如果文件路径不存在，新增该路径
-        File file1 = new File(filePath);
-        if (!file1.exists()) {
-            file1.mkdir();
+            //按内容哈希保存，相同文件只存一份
+            storeAvatorPath = mediaStore.store(avatorFile.getInputStream(), avatorFile.getOriginalFilename(), "/img/singerPic/");
         }
-        //实际的文件地址
-        File dest = new File(filePath + fileName);
-        //存储到数据库里的相对文件地址
-        String storeAvatorPath = "/img/singerPic/" + fileName;
-        avatorFile.transferTo(dest);
-        Singer singer = new Singer();
-        singer.setId(id);
-        singer.setPic(storeAvatorPath);
+        //直接读库里的旧值，更新时以旧值为条件，并发替换同一行时只有一个成功，旧文件只释放一次
+        Singer old = singerService.selectByPrimaryKey(id);
 
-        if (singerService.update(singer)) {
+        if (old != null && singerService.replacePic(id, old.getPic(), storeAvatorPath)) {
+            singerCache.invalidate(id);
+            searchIndexes.refreshSinger(id);
+            catalogVersions.bump(Catalog.SINGER);
+            mediaStore.release(old.getPic());
+            imageVariants.submit(storeAvatorPath);
             UploadPicVo songListVo = new UploadPicVo();
             songListVo.setPic(storeAvatorPath);
             return R.ok("上传成功", songListVo);
         }
 
+        mediaStore.release(storeAvatorPath);
         return R.error("上传失败");
     }
 
@@ -1,18 +1,45 @@
 package com.lhy.music.controller;
 
+import cn.hutool.core.util.StrUtil;
+import com.lhy.music.cache.CatalogVersions.Catalog;
+import com.lhy.music.cache.CatalogVersions;
+import com.lhy.music.cache.EntityCache;
+import com.lhy.music.cache.SongPlayCounter;
 import com.lhy.music.common.R;
 import com.lhy.music.entity.po.Song;
+import com.lhy.music.entity.vo.MultiGetVo;
+import com.lhy.music.entity.vo.SongLyricVo;
+import com.lhy.music.entity.vo.SongPlayVo;
 import com.lhy.music.entity.vo.UploadPicVo;
 import com.lhy.music.entity.vo.UploadSongVo;
+import com.lhy.music.search.ColumnarCatalog;
+import com.lhy.music.search.SearchIndexes;
 import com.lhy.music.service.SongService;
+import com.lhy.music.storage.ChunkedUploads;
+import com.lhy.music.storage.ImageVariants;
+import com.lhy.music.storage.MediaStore;
+import com.lhy.music.utils.BatchUtils;
+import com.lhy.music.utils.PageUtils;
 import com.lhy.music.utils.PathUtils;
+import com.lhy.music.utils.RangeFileUtils;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * 歌曲 控制层
@@ -29,6 +56,25 @@ public class SongController {
     //控制器依赖于SongService来实现服务逻辑
     private final SongService songService;
 
+    private final ChunkedUploads chunkedUploads;
+
+    private final MediaStore mediaStore;
+
+    private final ImageVariants imageVariants;
+
+    private final EntityCache<Integer, Song> songCache;
+
+    private final SearchIndexes searchIndexes;
+
+    private final ColumnarCatalog columnarCatalog;
+
+    private final SongPlayCounter songPlayCounter;
+
+    private final CatalogVersions catalogVersions;
+
+    //歌词缓存，歌曲修改、删除时失效
+    private final EntityCache<Integer, SongLyricVo> lyricCache;
+
     /**
      * 添加歌曲
      *
@@ -38,6 +84,7 @@ public class SongController {
      * @param pic          默认图片
      * @param lyric        歌词
      * @param mpFile       歌曲文件
+     * @param uploadId     分片上传id，与file二选一
      * @return 添加结果
      */
     @PostMapping(value = "/add")
@@ -47,28 +94,32 @@ public class SongController {
             String introduction,
             String pic,
             String lyric,
-            @RequestParam("file") MultipartFile mpFile
+            @RequestParam(value = "file", required = false) MultipartFile mpFile,
+            String uploadId
     ) throws IOException {
-        //上传歌曲文件
-        if (mpFile.isEmpty()) {
-            return R.error("歌曲上传失败");
+        //图片地址由客户端传入，指向按内容保存的文件时需要占用一次引用，否则删除歌曲时会误删其他记录的图片
+        if (!mediaStore.acquire(pic)) {
+            return R.error("图片不存在");
         }
 
-        //文件名=当前时间到毫秒+原来的文件名
-        String fileName = System.currentTimeMillis() + mpFile.getOriginalFilename();
-        //文件路径
-        String filePath = PathUtils.getClassLoadRootPath() + "/song/";
-        //如果文件路径不存在，新增该路径
-        File file1 = new File(filePath);
-        if (!file1.exists()) {
-            file1.mkdir();
-        }
-        //实际的文件地址
-        File dest = new File(filePath + fileName);
-        //存储到数据库里的相对文件地址
-        String storeUrlPath = "/song/" + fileName;
+        //上传歌曲文件
+        String storeUrlPath;
+        if (StrUtil.isNotBlank(uploadId)) {
+            //分片上传已全部到齐，保存到目标目录
+            storeUrlPath = chunkedUploads.complete(uploadId, "/song/");
+            if (storeUrlPath == null) {
+                mediaStore.release(pic);
+                return R.error("分片上传未完成");
+            }
+        } else {
+            if (mpFile == null || mpFile.isEmpty()) {
+                mediaStore.release(pic);
+                return R.error("歌曲上传失败");
+            }
 
-        mpFile.transferTo(dest);
+            //按内容哈希保存，相同文件只存一份
+            storeUrlPath = mediaStore.store(mpFile.getInputStream(), mpFile.getOriginalFilename(), "/song/");
+        }
         Song song = new Song();
         song.setSingerId(Integer.parseInt(singerId));
         song.setName(name);
@@ -79,23 +130,47 @@ public class SongController {
 
         //保存歌曲成功
         if (songService.insert(song)) {
+            searchIndexes.refreshSong(song.getId());
+            catalogVersions.bump(Catalog.SONG);
             UploadSongVo uploadSongVo = new UploadSongVo();
             uploadSongVo.setAvator(storeUrlPath);
             return R.ok(uploadSongVo);
         }
 
+        mediaStore.release(storeUrlPath);
+        mediaStore.release(pic);
         return R.error("保存失败");
     }
 
     /**
      * 根据歌手id查询歌曲
      *
-     * @param singerId 歌手id
+     * @param singerId   歌手id
+     * @param webRequest 请求
      * @return 歌曲列表
      */
     @GetMapping(value = "/singer/detail")
-    public List<Song> songOfSingerId(Integer singerId) {
-        return songService.songOfSingerId(singerId);
+    public List<Song> songOfSingerId(Integer singerId, ServletWebRequest webRequest) {
+        if (catalogVersions.notModified(webRequest, Catalog.SONG)) {
+            return null;
+        }
+        return columnarCatalog.songOfSingerId(singerId);
+    }
+
+    /**
+     * 按歌手、歌手性别组合过滤歌曲
+     *
+     * @param singerId   歌手id，可空
+     * @param singerSex  歌手性别，可空
+     * @param webRequest 请求
+     * @return 歌曲列表（不含歌词）
+     */
+    @GetMapping(value = "/filter")
+    public List<Song> filterSong(Integer singerId, Integer singerSex, ServletWebRequest webRequest) {
+        if (catalogVersions.notModified(webRequest, Catalog.SONG, Catalog.SINGER)) {
+            return null;
+        }
+        return columnarCatalog.filterSongs(singerId, singerSex);
     }
 
     /**
@@ -118,6 +193,10 @@ public class SongController {
 
         //修改成功
         if (songService.update(song)) {
+            songCache.invalidate(song.getId());
+            searchIndexes.refreshSong(song.getId());
+            catalogVersions.bump(Catalog.SONG);
+            lyricCache.invalidate(id);
             return R.ok("修改成功");
         }
 
@@ -132,7 +211,18 @@ public class SongController {
      */
     @GetMapping(value = "/delete")
     public Boolean deleteSinger(Integer id) {
-        return songService.delete(id);
+        Song old = songService.selectByPrimaryKey(id);
+        boolean deleted = songService.delete(id);
+        songCache.invalidate(id);
+        searchIndexes.removeSong(id);
+        catalogVersions.bump(Catalog.SONG);
+        lyricCache.invalidate(id);
+        //删除成功后释放歌曲文件和图片的引用
+        if (deleted && old != null) {
+            mediaStore.release(old.getUrl());
+            mediaStore.release(old.getPic());
+        }
+        return deleted;
     }
 
     /**
@@ -140,43 +230,47 @@ public class SongController {
      *
      * @param avatorFile 歌曲图片
      * @param id         歌曲id
+     * @param uploadId   分片上传id，与file二选一
      * @return 更新结果
      */
     @RequestMapping(value = "/updateSongPic", method = RequestMethod.POST)
     public R<UploadPicVo> updateSongPic(
-            @RequestParam("file") MultipartFile avatorFile,
-            @RequestParam("id") Integer id
+            @RequestParam(value = "file", required = false) MultipartFile avatorFile,
+            @RequestParam("id") Integer id,
+            String uploadId
     ) throws IOException {
 
-        if (avatorFile.isEmpty()) {
-            return R.error("文件上传失败");
-        }
+        String storeAvatorPath;
+        if (StrUtil.isNotBlank(uploadId)) {
+            //分片上传已全部到齐，保存到目标目录
+            storeAvatorPath = chunkedUploads.complete(uploadId, "/img/songPic/");
+            if (storeAvatorPath == null) {
+                return R.error("分片上传未完成");
+            }
+        } else {
+            if (avatorFile == null || avatorFile.isEmpty()) {
+                return R.error("文件上传失败");
+            }
 
-        //文件名=当前时间到毫秒+原来的文件名
-        String fileName = System.currentTimeMillis() + avatorFile.getOriginalFilename();
-        //文件路径
-        String filePath = PathUtils.getClassLoadRootPath() + "/img/songPic/";
-        //如果文件路径不存在，新增该路径
-        File file1 = new File(filePath);
-        if (!file1.exists()) {
-            file1.mkdir();
+            //按内容哈希保存，相同文件只存一份
+            storeAvatorPath = mediaStore.store(avatorFile.getInputStream(), avatorFile.getOriginalFilename(), "/img/songPic/");
         }
-        //实际的文件地址
-        File dest = new File(filePath + fileName);
-        //存储到数据库里的相对文件地址
-        String storeAvatorPath = "/img/songPic/" + fileName;
-        avatorFile.transferTo(dest);
-        Song song = new Song();
-        song.setId(id);
-        song.setPic(storeAvatorPath);
+        //直接读库里的旧值，更新时以旧值为条件，并发替换同一行时只有一个成功，旧文件只释放一次
+        Song old = songService.selectByPrimaryKey(id);
 
         //更新成功
-        if (songService.update(song)) {
+        if (old != null && songService.replacePic(id, old.getPic(), storeAvatorPath)) {
+            songCache.invalidate(id);
+            searchIndexes.refreshSong(id);
+            catalogVersions.bump(Catalog.SONG);
+            mediaStore.release(old.getPic());
+            imageVariants.submit(storeAvatorPath);
             UploadPicVo uploadPicVo = new UploadPicVo();
             uploadPicVo.setPic(storeAvatorPath);
             return new R(1, "上传成功", uploadPicVo);
         }
 
+        mediaStore.release(storeAvatorPath);
         return R.error(0, "上传失败");
     }
 
@@ -185,86 +279,227 @@ public class SongController {
      *
      * @param avatorFile 歌曲图片文件
      * @param id         歌曲id
+     * @param uploadId   分片上传id，与file二选一
      * @return 更新结果
      */
     @PostMapping(value = "/updateSongUrl")
     public R<UploadSongVo> updateSongUrl(
-            @RequestParam("file") MultipartFile avatorFile,
-            @RequestParam("id") Integer id
+            @RequestParam(value = "file", required = false) MultipartFile avatorFile,
+            @RequestParam("id") Integer id,
+            String uploadId
     ) throws IOException {
-        if (avatorFile.isEmpty()) {
-            return R.error("文件上传失败");
-        }
+        String storeAvatorPath;
+        if (StrUtil.isNotBlank(uploadId)) {
+            //分片上传已全部到齐，保存到目标目录
+            storeAvatorPath = chunkedUploads.complete(uploadId, "/song/");
+            if (storeAvatorPath == null) {
+                return R.error("分片上传未完成");
+            }
+        } else {
+            if (avatorFile == null || avatorFile.isEmpty()) {
+                return R.error("文件上传失败");
+            }
 
-        //文件名=当前时间到毫秒+原来的文件名
-        String fileName = System.currentTimeMillis() + avatorFile.getOriginalFilename();
-        //文件路径
-        String filePath = PathUtils.getClassLoadRootPath() + "/song/";
-        //如果文件路径不存在，新增该路径
-        File file1 = new File(filePath);
-        if (!file1.exists()) {
-            file1.mkdir();
+            //按内容哈希保存，相同文件只存一份
+            storeAvatorPath = mediaStore.store(avatorFile.getInputStream(), avatorFile.getOriginalFilename(), "/song/");
         }
-        //实际的文件地址
-        File dest = new File(filePath + fileName);
-        //存储到数据库里的相对文件地址
-        String storeAvatorPath = "/song/" + fileName;
-        avatorFile.transferTo(dest);
-        Song song = new Song();
-        song.setId(id);
-        song.setUrl(storeAvatorPath);
+        //直接读库里的旧值，更新时以旧值为条件，并发替换同一行时只有一个成功，旧文件只释放一次
+        Song old = songService.selectByPrimaryKey(id);
 
         //更新歌曲
-        if (songService.update(song)) {
+        if (old != null && songService.replaceUrl(id, old.getUrl(), storeAvatorPath)) {
+            songCache.invalidate(id);
+            searchIndexes.refreshSong(id);
+            catalogVersions.bump(Catalog.SONG);
+            mediaStore.release(old.getUrl());
             UploadSongVo uploadSongVo = new UploadSongVo();
             uploadSongVo.setAvator(storeAvatorPath);
             return new R(1, "上传成功", uploadSongVo);
         }
 
+        mediaStore.release(storeAvatorPath);
         return R.error(0, "上传失败");
     }
 
     /**
      * 根据歌曲id查询歌曲对象
      *
-     * @param songId 歌曲id
+     * @param songId     歌曲id
+     * @param webRequest 请求
      * @return 歌曲
      */
     @GetMapping(value = "/detail")
-    public Object detail(Integer songId) {
-        return songService.selectByPrimaryKey(songId);
+    public Object detail(Integer songId, ServletWebRequest webRequest) {
+        Song song = songCache.get(songId, songService::selectByPrimaryKey);
+        //Last-Modified取歌曲的更新时间
+        if (song != null && catalogVersions.notModified(webRequest, song.getUpdateTime(), Catalog.SONG)) {
+            return null;
+        }
+        return song;
+    }
+
+    /**
+     * 批量查询歌曲（不含歌词），一次 in 查询
+     * 歌曲缓存里是含歌词的完整记录，这里只取列表需要的列，不经过缓存，也不把不完整的记录放进缓存
+     *
+     * @param ids 歌曲id，逗号分隔，最多100个
+     * @return 按请求顺序排列的歌曲和不存在的id
+     */
+    @GetMapping(value = "/details")
+    public R<MultiGetVo<Song>> details(@RequestParam List<Integer> ids) {
+        Set<Integer> songIds = BatchUtils.ids(ids);
+        if (songIds == null) {
+            return R.error("id数量应在1到" + BatchUtils.MAX_IDS + "之间");
+        }
+        Map<Integer, Song> songs = new HashMap<>();
+        for (Song song : songService.selectByIds(songIds)) {
+            songs.put(song.getId(), song);
+        }
+        return R.ok(BatchUtils.multiGet(songIds, songs));
+    }
+
+    /**
+     * 播放歌曲文件，支持Range分段请求（拖动进度条时只返回需要的部分）
+     *
+     * @param songId   歌曲id
+     * @param request  请求
+     * @param response 响应
+     */
+    @GetMapping(value = "/stream")
+    public void stream(Integer songId, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Song song = songCache.get(songId, songService::selectByPrimaryKey);
+        if (song == null || !StrUtil.startWith(song.getUrl(), "/song/")) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        //数据库里存的是 /song/文件名，只允许访问song目录下的文件
+        String songPath = PathUtils.getClassLoadRootPath() + "/song/";
+        RangeFileUtils.send(songPath, StrUtil.removePrefix(song.getUrl(), "/song/"), request, response);
+    }
+
+    /**
+     * 记录一次播放
+     *
+     * @param songId 歌曲id
+     * @return 结果
+     */
+    @PostMapping(value = "/play")
+    public R play(Integer songId) {
+        if (songId == null) {
+            return R.error("歌曲id为空");
+        }
+        //只统计存在的歌曲，避免任意id在内存里堆积、写出不存在歌曲的song_play
+        if (!columnarCatalog.containsSong(songId)) {
+            return R.error("歌曲不存在");
+        }
+        songPlayCounter.play(songId);
+        return R.ok("记录成功");
+    }
+
+    /**
+     * 播放排行榜
+     *
+     * @param limit 条数，默认20，最多100
+     * @return 歌曲播放次数，按次数倒序
+     */
+    @GetMapping(value = "/top")
+    public List<SongPlayVo> top(Integer limit) {
+        return songPlayCounter.top(PageUtils.limit(limit));
+    }
+
+    /**
+     * 查询歌曲歌词
+     * 列表接口不再返回歌词，播放时单独获取；内容不变时返回304
+     *
+     * @param songId     歌曲id
+     * @param webRequest 请求
+     * @return 歌词文本
+     */
+    @GetMapping(value = "/lyric")
+    public ResponseEntity<String> lyric(Integer songId, WebRequest webRequest) {
+        //加载期间歌曲被修改时不放入缓存，旧歌词不会覆盖修改
+        SongLyricVo songLyricVo = lyricCache.get(songId, this::loadLyric);
+        if (songLyricVo == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        //客户端缓存的歌词没有变化
+        if (webRequest.checkNotModified(songLyricVo.getEtag())) {
+            return null;
+        }
+
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noCache())
+                .eTag(songLyricVo.getEtag())
+                .contentType(new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8))
+                .body(songLyricVo.getLyric());
+    }
+
+    private SongLyricVo loadLyric(Integer songId) {
+        Song song = songService.selectLyricByPrimaryKey(songId);
+        if (song == null) {
+            return null;
+        }
+        String lyric = StrUtil.nullToEmpty(song.getLyric());
+        SongLyricVo songLyricVo = new SongLyricVo();
+        songLyricVo.setSongId(songId);
+        songLyricVo.setLyric(lyric);
+        songLyricVo.setEtag("\"" + DigestUtils.md5DigestAsHex(lyric.getBytes(StandardCharsets.UTF_8)) + "\"");
+        return songLyricVo;
     }
 
     /**
      * 根据歌手名字精确查询歌曲
      *
-     * @param songName 歌手名
+     * @param songName   歌手名
+     * @param webRequest 请求
      * @return 歌曲列表
      */
     @GetMapping(value = "/songOfSongName")
-    public Object songOfSongName(String songName) {
+    public Object songOfSongName(String songName, ServletWebRequest webRequest) {
+        if (catalogVersions.notModified(webRequest, Catalog.SONG)) {
+            return null;
+        }
         return songService.songOfName(songName);
     }
 
     /**
      * 根据歌手名字模糊查询歌曲
      *
-     * @param songName 歌手名称
+     * @param songName   歌手名称
+     * @param webRequest 请求
      * @return 歌曲列表
      */
     @GetMapping(value = "/likeSongOfName")
-    public Object likeSongOfName(String songName) {
-        return songService.likeSongOfName(songName);
+    public Object likeSongOfName(String songName, ServletWebRequest webRequest) {
+        if (catalogVersions.notModified(webRequest, Catalog.SONG)) {
+            return null;
+        }
+        return searchIndexes.likeSongOfName(songName);
     }
 
     /**
      * 查询所有歌曲
+     * 带after或limit参数时按主键游标分页
      *
+     * @param after      游标（上一页最后一条的主键）
+     * @param limit      每页条数
+     * @param webRequest 请求
      * @return 歌曲列表
      */
     @GetMapping(value = "/allSong")
-    public Object allSong() {
-        return songService.allSong();
+    public Object allSong(Integer after, Integer limit, ServletWebRequest webRequest) {
+        if (catalogVersions.notModified(webRequest, Catalog.SONG)) {
+            return null;
+        }
+
+        //不带分页参数时保持原来的全量返回
+        if (after == null && limit == null) {
+            return songService.allSong();
+        }
+        int size = PageUtils.limit(limit);
+        return PageUtils.page(songService.allSongPage(PageUtils.after(after), size), size, Song::getId);
     }
 
 }
@@ -1,17 +1,31 @@
 package com.lhy.music.controller;
 
+import cn.hutool.core.util.StrUtil;
+import com.lhy.music.cache.CatalogVersions.Catalog;
+import com.lhy.music.cache.CatalogVersions;
+import com.lhy.music.cache.EntityCache;
+import com.lhy.music.cache.ResponseBodyCache;
 import com.lhy.music.common.R;
 import com.lhy.music.entity.po.SongList;
+import com.lhy.music.entity.vo.MultiGetVo;
 import com.lhy.music.entity.vo.UploadPicVo;
+import com.lhy.music.search.ColumnarCatalog;
+import com.lhy.music.search.SearchIndexes;
 import com.lhy.music.service.SongListService;
-import com.lhy.music.utils.PathUtils;
+import com.lhy.music.storage.ChunkedUploads;
+import com.lhy.music.storage.ImageVariants;
+import com.lhy.music.storage.MediaStore;
+import com.lhy.music.utils.BatchUtils;
+import com.lhy.music.utils.PageUtils;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.Set;
 
 /**
  * 歌单 控制层
@@ -23,6 +37,22 @@ public class SongListController {
 
     private final SongListService songListService;
 
+    private final ChunkedUploads chunkedUploads;
+
+    private final MediaStore mediaStore;
+
+    private final ImageVariants imageVariants;
+
+    private final EntityCache<Integer, SongList> songListCache;
+
+    private final SearchIndexes searchIndexes;
+
+    private final ColumnarCatalog columnarCatalog;
+
+    private final CatalogVersions catalogVersions;
+
+    private final ResponseBodyCache responseBodyCache;
+
     /**
      * 添加歌单
      *
@@ -39,6 +69,10 @@ public class SongListController {
             String introduction,
             String style
     ) {
+        //图片指向按内容保存的文件时占用一次引用，删除歌单时释放
+        if (!mediaStore.acquire(pic)) {
+            return R.error("图片不存在");
+        }
         //保存到歌单的对象中
         SongList songList = new SongList();
         songList.setTitle(title);
@@ -48,9 +82,12 @@ public class SongListController {
 
         //添加成功
         if (songListService.insert(songList)) {
+            searchIndexes.refreshSongList(songList.getId());
+            catalogVersions.bump(Catalog.SONG_LIST);
             return R.ok("添加成功");
         }
 
+        mediaStore.release(pic);
         return R.error("添加失败");
     }
 
@@ -79,6 +116,9 @@ public class SongListController {
 
         //修改成功
         if (songListService.update(songList)) {
+            songListCache.invalidate(songList.getId());
+            searchIndexes.refreshSongList(songList.getId());
+            catalogVersions.bump(Catalog.SONG_LIST);
             return R.ok("修改成功");
         }
         return R.error("修改失败");
@@ -92,61 +132,108 @@ public class SongListController {
      */
     @GetMapping(value = "/delete")
     public Boolean deleteSongList(Integer id) {
-        return songListService.delete(id);
+        SongList old = songListService.selectByPrimaryKey(id);
+        boolean deleted = songListService.delete(id);
+        songListCache.invalidate(id);
+        searchIndexes.removeSongList(id);
+        catalogVersions.bump(Catalog.SONG_LIST);
+        if (deleted && old != null) {
+            mediaStore.release(old.getPic());
+        }
+        return deleted;
     }
 
     /**
      * 查询歌单
      *
-     * @param id 歌单id
+     * @param id         歌单id
+     * @param webRequest 请求
      * @return 歌单
      */
     @GetMapping(value = "/selectByPrimaryKey")
-    public SongList selectByPrimaryKey(Integer id) {
-        return songListService.selectByPrimaryKey(id);
+    public SongList selectByPrimaryKey(Integer id, ServletWebRequest webRequest) {
+        if (catalogVersions.notModified(webRequest, Catalog.SONG_LIST)) {
+            return null;
+        }
+        return songListCache.get(id, songListService::selectByPrimaryKey);
+    }
+
+    /**
+     * 批量查询歌单，已缓存的不再查库，其余一次 in 查询
+     *
+     * @param ids 歌单id，逗号分隔，最多100个
+     * @return 按请求顺序排列的歌单和不存在的id
+     */
+    @GetMapping(value = "/selectByIds")
+    public R<MultiGetVo<SongList>> selectByIds(@RequestParam List<Integer> ids) {
+        Set<Integer> songListIds = BatchUtils.ids(ids);
+        if (songListIds == null) {
+            return R.error("id数量应在1到" + BatchUtils.MAX_IDS + "之间");
+        }
+        return R.ok(BatchUtils.multiGet(songListIds, songListCache.getAll(songListIds, songListService::selectByIds, SongList::getId)));
     }
 
     /**
      * 查询所有歌单
+     * 带after或limit参数时按主键游标分页，响应字节按数据版本缓存
      *
+     * @param after      游标（上一页最后一条的主键）
+     * @param limit      每页条数
+     * @param webRequest 请求
      * @return 歌单列表
      */
     @GetMapping(value = "/allSongList")
-    public List<SongList> allSongList() {
-        return songListService.allSongList();
+    public ResponseEntity<byte[]> allSongList(Integer after, Integer limit, ServletWebRequest webRequest) {
+        //不带分页参数时保持原来的全量返回
+        if (after == null && limit == null) {
+            return responseBodyCache.respond("songList:all", webRequest, songListService::allSongList, Catalog.SONG_LIST);
+        }
+        int size = PageUtils.limit(limit);
+        int from = PageUtils.after(after);
+        return responseBodyCache.respond("songList:all:" + from + ":" + size, webRequest,
+                () -> PageUtils.page(songListService.allSongListPage(from, size), size, SongList::getId), Catalog.SONG_LIST);
     }
 
     /**
      * 根据标题精确查询歌单列表
      *
-     * @param title 标题
+     * @param title      标题
+     * @param webRequest 请求
      * @return 歌单列表
      */
     @GetMapping(value = "/songListOfTitle")
-    public List<SongList> songListOfName(String title) {
+    public List<SongList> songListOfName(String title, ServletWebRequest webRequest) {
+        if (catalogVersions.notModified(webRequest, Catalog.SONG_LIST)) {
+            return null;
+        }
         return songListService.songListOfTitle(title);
     }
 
     /**
      * 根据标题模糊查询歌单列表
      *
-     * @param title 标题
+     * @param title      标题
+     * @param webRequest 请求
      * @return 歌单列表
      */
     @GetMapping(value = "/likeTitle")
-    public List<SongList> likeTitle(String title) {
-        return songListService.likeTitle("%" + title + "%");
+    public List<SongList> likeTitle(String title, ServletWebRequest webRequest) {
+        if (catalogVersions.notModified(webRequest, Catalog.SONG_LIST)) {
+            return null;
+        }
+        return searchIndexes.likeTitle(title);
     }
 
     /**
-     * 根据风格模糊查询歌单列表
+     * 根据风格模糊查询歌单列表，响应字节按数据版本缓存
      *
-     * @param style 歌单风格
+     * @param style      歌单风格
+     * @param webRequest 请求
      * @return 歌单列表
      */
     @RequestMapping(value = "/likeStyle", method = RequestMethod.GET)
-    public Object likeStyle(String style) {
-        return songListService.likeStyle("%" + style + "%");
+    public ResponseEntity<byte[]> likeStyle(String style, ServletWebRequest webRequest) {
+        return responseBodyCache.respond("songList:style:" + style, webRequest, () -> columnarCatalog.likeStyle(style), Catalog.SONG_LIST);
     }
 
     /**
@@ -154,43 +241,46 @@ public class SongListController {
      *
      * @param avatorFile 头像文件
      * @param id         歌单id
+     * @param uploadId   分片上传id，与file二选一
      * @return 更新结果
      */
     @PostMapping(value = "/updateSongListPic")
     public R<UploadPicVo> updateSongListPic(
-            @RequestParam("file") MultipartFile avatorFile,
-            @RequestParam("id") Integer id
+            @RequestParam(value = "file", required = false) MultipartFile avatorFile,
+            @RequestParam("id") Integer id,
+            String uploadId
     ) throws IOException {
-        if (avatorFile.isEmpty()) {
-            return R.error("文件上传失败");
-        }
+        String storeAvatorPath;
+        if (StrUtil.isNotBlank(uploadId)) {
+            //分片上传已全部到齐，保存到目标目录
+            storeAvatorPath = chunkedUploads.complete(uploadId, "/img/songListPic/");
+            if (storeAvatorPath == null) {
+                return R.error("分片上传未完成");
+            }
+        } else {
+            if (avatorFile == null || avatorFile.isEmpty()) {
+                return R.error("文件上传失败");
+            }
 
-        //文件名=当前时间到毫秒+原来的文件名
-        String fileName = System.currentTimeMillis() + avatorFile.getOriginalFilename();
-        //文件路径
-        String filePath = PathUtils.getClassLoadRootPath() + "/img/songListPic/";
-        //如果文件路径不存在，新增该路径
-        File file1 = new File(filePath);
-        if (!file1.exists()) {
-            file1.mkdir();
+            //按内容哈希保存，相同文件只存一份
+            storeAvatorPath = mediaStore.store(avatorFile.getInputStream(), avatorFile.getOriginalFilename(), "/img/songListPic/");
         }
-        //实际的文件地址
-        File dest = new File(filePath + fileName);
-        //存储到数据库里的相对文件地址
-        String storeAvatorPath = "/img/songListPic/" + fileName;
-
-        avatorFile.transferTo(dest);
-        SongList songList = new SongList();
-        songList.setId(id);
-        songList.setPic(storeAvatorPath);
+        //直接读库里的旧值，更新时以旧值为条件，并发替换同一行时只有一个成功，旧文件只释放一次
+        SongList old = songListService.selectByPrimaryKey(id);
 
         //更新歌单
-        if (songListService.update(songList)) {
+        if (old != null && songListService.replacePic(id, old.getPic(), storeAvatorPath)) {
+            songListCache.invalidate(id);
+            searchIndexes.refreshSongList(id);
+            catalogVersions.bump(Catalog.SONG_LIST);
+            mediaStore.release(old.getPic());
+            imageVariants.submit(storeAvatorPath);
             UploadPicVo uploadPicVo = new UploadPicVo();
             uploadPicVo.setPic(storeAvatorPath);
             return R.ok("上传成功", uploadPicVo);
         }
 
+        mediaStore.release(storeAvatorPath);
         return R.error("上传失败");
     }
 
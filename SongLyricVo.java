@@ -0,0 +1,26 @@
+package com.lhy.music.entity.vo;
+
+import lombok.Data;
+
+/**
+ * 歌词缓存对象
+ */
+@Data
+public class SongLyricVo {
+
+    /**
+     * 歌曲id
+     */
+    private Integer songId;
+
+    /**
+     * 歌词
+     */
+    private String lyric;
+
+    /**
+     * 歌词内容的摘要，用作强ETag
+     */
+    private String etag;
+
+}
@@ -0,0 +1,215 @@
+package com.lhy.music.cache;
+
+import com.lhy.music.entity.vo.SongPlayVo;
+import com.lhy.music.service.SongService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 歌曲播放次数统计和排行榜
+ * 播放事件只累加内存中的未写入增量，后台线程定时取走增量批量写入song_play表（失败时加回去下次重试），同时更新排行榜：
+ * 榜内歌曲精确累加，榜外歌曲用Count-Min Sketch估计，估计值超过榜尾时从库里读出累计次数再和榜尾比较，
+ * 榜上的次数都是累计总数；启动时用song_play的累计次数初始化sketch，估计值不小于真实总数，不会漏掉该进榜的歌曲
+ */
+@Slf4j
+@Component
+@DependsOn("schemaMigrator")
+@RequiredArgsConstructor
+public class SongPlayCounter {
+
+    /**
+     * 每条insert语句最多包含的歌曲数
+     */
+    private static final int BATCH_SIZE = 500;
+
+    private final SongService songService;
+
+    //歌曲id -> 未写入数据库的播放次数，写入后移除
+    private final Map<Integer, Long> pending = new ConcurrentHashMap<>();
+
+    //以下排行榜数据只在flush线程中读写
+    private final Map<Integer, Long> topCounts = new HashMap<>();
+
+    private final PriorityQueue<Integer> topHeap = new PriorityQueue<>(Comparator.comparingLong(topCounts::get));
+
+    private final CountMinSketch sketch = new CountMinSketch(1 << 16);
+
+    //对外发布的排行榜快照，按播放次数倒序
+    private volatile List<SongPlayVo> topList = Collections.emptyList();
+
+    private ScheduledExecutorService flusher;
+
+    @Value("${music.song.play.flush-interval:1000}")
+    private long flushInterval;
+
+    @Value("${music.song.play.top-size:100}")
+    private int topSize;
+
+    @PostConstruct
+    public void start() {
+        for (Map<String, Object> row : songService.allPlayCount()) {
+            sketch.add(((Number) row.get("songId")).intValue(), ((Number) row.get("playCount")).longValue());
+        }
+        for (Map<String, Object> row : songService.topPlayCount(topSize)) {
+            Integer songId = ((Number) row.get("songId")).intValue();
+            topCounts.put(songId, ((Number) row.get("playCount")).longValue());
+            topHeap.add(songId);
+        }
+        publish();
+
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "song-play-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        flusher.shutdown();
+        flushQuietly();
+    }
+
+    /**
+     * 记录一次播放，调用方需先确认歌曲存在
+     *
+     * @param songId 歌曲id
+     */
+    public void play(Integer songId) {
+        pending.merge(songId, 1L, Long::sum);
+    }
+
+    /**
+     * 播放排行榜
+     *
+     * @param limit 条数
+     * @return 歌曲播放次数，按次数倒序
+     */
+    public List<SongPlayVo> top(int limit) {
+        List<SongPlayVo> list = topList;
+        return list.size() <= limit ? list : list.subList(0, limit);
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("歌曲播放次数写入失败，下次重试", e);
+        }
+    }
+
+    /**
+     * 取走各歌曲未写入的增量批量写库并更新排行榜
+     */
+    synchronized void flush() {
+        Map<Integer, Long> deltas = new HashMap<>();
+        for (Integer songId : pending.keySet()) {
+            //remove是原子的，取走之后的播放会计入新的条目
+            Long delta = pending.remove(songId);
+            if (delta != null) {
+                deltas.put(songId, delta);
+            }
+            if (deltas.size() >= BATCH_SIZE) {
+                write(deltas);
+                deltas = new HashMap<>();
+            }
+        }
+        if (!deltas.isEmpty()) {
+            write(deltas);
+        }
+    }
+
+    private void write(Map<Integer, Long> deltas) {
+        try {
+            songService.increasePlayCount(deltas);
+        } catch (RuntimeException e) {
+            //写库失败，增量加回去下次重试
+            for (Map.Entry<Integer, Long> entry : deltas.entrySet()) {
+                pending.merge(entry.getKey(), entry.getValue(), Long::sum);
+            }
+            throw e;
+        }
+        List<Integer> candidates = new ArrayList<>();
+        for (Map.Entry<Integer, Long> entry : deltas.entrySet()) {
+            if (offer(entry.getKey(), entry.getValue())) {
+                candidates.add(entry.getKey());
+            }
+        }
+        if (!candidates.isEmpty()) {
+            //估计值只用于筛选，进榜和比较都用库里的累计次数
+            for (Map<String, Object> row : songService.playCountOfIds(candidates)) {
+                admit(((Number) row.get("songId")).intValue(), ((Number) row.get("playCount")).longValue());
+            }
+        }
+        publish();
+    }
+
+    /**
+     * 更新排行榜
+     *
+     * @return 榜外歌曲的估计值超过榜尾（或榜未满），需要读出累计次数决定是否进榜
+     */
+    private boolean offer(Integer songId, long delta) {
+        long estimate = sketch.add(songId, delta);
+        Long current = topCounts.get(songId);
+        if (current != null) {
+            //榜内歌曲重新调整堆中位置
+            topHeap.remove(songId);
+            topCounts.put(songId, current + delta);
+            topHeap.add(songId);
+            return false;
+        }
+        Integer last = topHeap.peek();
+        return topCounts.size() < topSize || last != null && estimate > topCounts.get(last);
+    }
+
+    /**
+     * 按累计次数进榜，榜满时替换榜尾
+     */
+    private void admit(Integer songId, long total) {
+        if (topCounts.containsKey(songId)) {
+            return;
+        }
+        if (topCounts.size() >= topSize) {
+            Integer last = topHeap.peek();
+            if (last == null || total <= topCounts.get(last)) {
+                return;
+            }
+            topHeap.poll();
+            topCounts.remove(last);
+        }
+        topCounts.put(songId, total);
+        topHeap.add(songId);
+    }
+
+    private void publish() {
+        List<SongPlayVo> list = new ArrayList<>(topCounts.size());
+        for (Map.Entry<Integer, Long> entry : topCounts.entrySet()) {
+            SongPlayVo songPlayVo = new SongPlayVo();
+            songPlayVo.setSongId(entry.getKey());
+            songPlayVo.setPlayCount(entry.getValue());
+            list.add(songPlayVo);
+        }
+        list.sort(Comparator.comparingLong(SongPlayVo::getPlayCount).reversed());
+        topList = Collections.unmodifiableList(list);
+    }
+
+}
@@ -0,0 +1,21 @@
+package com.lhy.music.entity.vo;
+
+import lombok.Data;
+
+/**
+ * 歌曲播放次数
+ */
+@Data
+public class SongPlayVo {
+
+    /**
+     * 歌曲id
+     */
+    private Integer songId;
+
+    /**
+     * 播放次数
+     */
+    private Long playCount;
+
+}
@@ -0,0 +1,75 @@
+package com.lhy.music.controller;
+
+import com.lhy.music.common.R;
+import com.lhy.music.entity.vo.UploadSessionVo;
+import com.lhy.music.storage.ChunkedUploads;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+
+/**
+ * 分片上传 控制层
+ * 流程：init 获取uploadId -> chunk 逐片上传（可并发、可断点续传） -> 调用原上传接口并传入uploadId完成上传
+ */
+@RestController
+@RequestMapping("/upload")
+@RequiredArgsConstructor
+public class UploadController {
+
+    private final ChunkedUploads chunkedUploads;
+
+    /**
+     * 开始分片上传
+     *
+     * @param fileName  原文件名
+     * @param fileSize  文件大小（字节）
+     * @param chunkSize 分片大小（字节，256KB~16MB）
+     * @return 上传状态
+     */
+    @PostMapping(value = "/init")
+    public R<UploadSessionVo> init(String fileName, Long fileSize, Integer chunkSize) throws IOException {
+        UploadSessionVo uploadSessionVo = chunkedUploads.init(fileName, fileSize, chunkSize);
+        if (uploadSessionVo == null) {
+            return R.error("上传参数错误或上传任务过多");
+        }
+        return R.ok(uploadSessionVo);
+    }
+
+    /**
+     * 上传一个分片，请求体为分片的原始字节（application/octet-stream）
+     *
+     * @param uploadId 上传id
+     * @param index    分片序号，从0开始
+     * @param md5      分片MD5
+     * @param request  请求
+     * @return 结果
+     */
+    @PostMapping(value = "/chunk")
+    public R chunk(String uploadId, Integer index, String md5, HttpServletRequest request) throws IOException {
+        if (chunkedUploads.writeChunk(uploadId, index, md5, request.getInputStream())) {
+            return R.ok("上传成功");
+        }
+        return R.error("分片校验失败，请重新上传");
+    }
+
+    /**
+     * 查询上传状态，断点续传时只需上传未接收的分片
+     *
+     * @param uploadId 上传id
+     * @return 上传状态
+     */
+    @GetMapping(value = "/status")
+    public R<UploadSessionVo> status(String uploadId) {
+        UploadSessionVo uploadSessionVo = chunkedUploads.status(uploadId);
+        if (uploadSessionVo == null) {
+            return R.error("上传不存在或已过期");
+        }
+        return R.ok(uploadSessionVo);
+    }
+
+}
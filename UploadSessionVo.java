@@ -0,0 +1,38 @@
+package com.lhy.music.entity.vo;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 分片上传状态
+ */
+@Data
+public class UploadSessionVo {
+
+    /**
+     * 上传id
+     */
+    private String uploadId;
+
+    /**
+     * 文件总大小
+     */
+    private Long fileSize;
+
+    /**
+     * 分片大小
+     */
+    private Integer chunkSize;
+
+    /**
+     * 分片总数
+     */
+    private Integer totalChunks;
+
+    /**
+     * 已接收的分片序号，断点续传时跳过这些分片
+     */
+    private List<Integer> received;
+
+}
@@ -0,0 +1,112 @@
+package com.lhy.music.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 虚拟线程执行模式
+ * 开启后Tomcat每个请求在一个新的虚拟线程上处理，控制层里的JDBC查询和上传写盘阻塞时只挂起虚拟线程，
+ * 慢上传、慢查询不再占满平台线程池，便宜的读请求不会被拖住
+ * 需要JDK 21及以上，通过反射创建虚拟线程，低版本JDK也能编译
+ * 并发上限改由连接数（server.tomcat.max-connections）和数据库连接池决定，
+ * 连接池满时请求在getConnection上等待，connectionTimeout即为查询排队的上限
+ * <p>
+ * 连接池大小：
+ * <ul>
+ * <li>不要为了虚拟线程调大连接池，库能同时执行的查询数不变，池大小仍按数据库的CPU核数估算（约 核数*2 加磁盘数），
+ *     spring.datasource.hikari.maximum-pool-size 默认10</li>
+ * <li>平台线程模式下排队的请求最多200个（server.tomcat.threads.max），虚拟线程模式下最多为 max-connections（默认8192），
+ *     都在getConnection上排队；Hikari默认等待30秒，这里在没有显式配置 spring.datasource.hikari.connection-timeout 时
+ *     改为 music.virtual-threads.connection-timeout（默认3000毫秒），超时的请求尽快失败，不在池外堆积</li>
+ * <li>需要限制同时处理的请求数时调小 server.tomcat.max-connections，超出的连接在 server.tomcat.accept-count 里排队</li>
+ * </ul>
+ * 开关对比：用 benchmark 模块的EmbeddedMusicDb起库，服务分别以 music.virtual-threads.enabled=false/true 启动，
+ * 在相同参数下各压测一次，第二次用第一次的结果做基线：
+ * <pre>
+ * java loadtest/MusicLoadTest.java @loadtest/results/bench-args.txt --threads=256 --rate=2000 --duration=120 --label=vt-off
+ * java loadtest/MusicLoadTest.java @loadtest/results/bench-args.txt --threads=256 --rate=2000 --duration=120 --label=vt-on \
+ *      --baseline=loadtest/results/{vt-off的结果}.csv
+ * </pre>
+ * 用--rate开环压测，排队时间计入延迟；并发用户数要大于平台线程数（200）才能看出差别，重点看p99/p999和errors
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "music.virtual-threads.enabled", havingValue = "true")
+public class VirtualThreadConfig {
+
+    private final ExecutorService executor = newVirtualThreadPerTaskExecutor("http-vt-");
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        log.info("Tomcat请求处理使用虚拟线程");
+        return protocolHandler -> protocolHandler.setExecutor(executor);
+    }
+
+    /**
+     * 虚拟线程模式下缩短Hikari获取连接的等待时间，显式配置了 spring.datasource.hikari.connection-timeout 时不修改
+     */
+    @Configuration
+    @ConditionalOnClass(name = "com.zaxxer.hikari.HikariDataSource")
+    static class PoolConfig {
+
+        @Bean
+        public static BeanPostProcessor virtualThreadPoolPostProcessor(Environment environment) {
+            long connectionTimeout = environment.getProperty("music.virtual-threads.connection-timeout", Long.class, 3000L);
+            boolean configured = environment.containsProperty("spring.datasource.hikari.connection-timeout");
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                    if (bean instanceof HikariDataSource) {
+                        HikariDataSource dataSource = (HikariDataSource) bean;
+                        if (!configured) {
+                            dataSource.setConnectionTimeout(connectionTimeout);
+                        }
+                        log.info("虚拟线程模式连接池：maximumPoolSize={}，connectionTimeout={}ms",
+                                dataSource.getMaximumPoolSize(), dataSource.getConnectionTimeout());
+                    }
+                    return bean;
+                }
+            };
+        }
+
+    }
+
+    @PreDestroy
+    public void stop() {
+        //外部设置的executor不归Tomcat管理，需要自己关闭
+        executor.shutdown();
+    }
+
+    /**
+     * 每个任务一个虚拟线程的executor
+     * 等价于 Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix, 0).factory())
+     *
+     * @param prefix 线程名前缀
+     * @return executor
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor(String prefix) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("虚拟线程需要JDK 21及以上，当前JDK：" + System.getProperty("java.version"), e);
+        }
+    }
+
+}
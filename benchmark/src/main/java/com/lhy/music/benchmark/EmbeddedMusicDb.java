@@ -0,0 +1,273 @@
+package com.lhy.music.benchmark;
+
+import ch.vorburger.exec.ManagedProcessException;
+import ch.vorburger.mariadb4j.DB;
+import ch.vorburger.mariadb4j.DBConfiguration;
+import ch.vorburger.mariadb4j.DBConfigurationBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 内嵌MariaDB
+ * 启动一个临时数据库，依次执行 music.sql、migration 下的全部迁移脚本和 bench_seed(scale)，
+ * 迁移记录按SchemaMigrator的格式写入schema_version，服务连上来后不会重复迁移
+ * 基准测试在进程内启动；压测时单独运行main，再把服务的数据源指向它：
+ * <pre>
+ * java -cp benchmark/target/benchmarks.jar com.lhy.music.benchmark.EmbeddedMusicDb --port=3307 --scale=10
+ * </pre>
+ * 参数：
+ * <ul>
+ * <li>--port      端口，默认3307，0表示随机空闲端口</li>
+ * <li>--scale     bench_seed的规模，默认1</li>
+ * <li>--args-file 写入压测id范围参数的文件，默认 loadtest/results/bench-args.txt，
+ *                 压测时用 java loadtest/MusicLoadTest.java @loadtest/results/bench-args.txt 读取</li>
+ * </ul>
+ */
+public class EmbeddedMusicDb implements AutoCloseable {
+
+    public static final String DATABASE = "music";
+
+    private static final Pattern SCRIPT_NAME = Pattern.compile("V(\\d+)__(.+)\\.sql");
+
+    /**
+     * migration下的脚本，按版本号排列；打包后classpath不能列目录，这里和 数据库/migration 保持一致
+     */
+    private static final String[] MIGRATIONS = {
+            "V1__add_secondary_indexes.sql",
+            "V2__add_song_play.sql",
+            "V3__add_media_blob.sql",
+            "V4__add_list_song_order_index.sql",
+            "V5__add_comment_feed_indexes.sql"
+    };
+
+    private final DB db;
+
+    private final DBConfiguration configuration;
+
+    //bench_seed返回的id范围，列名 -> 范围（如 2001-22000）
+    private final Map<String, String> ranges = new LinkedHashMap<>();
+
+    private EmbeddedMusicDb(DB db, DBConfiguration configuration) {
+        this.db = db;
+        this.configuration = configuration;
+    }
+
+    /**
+     * 启动数据库并生成数据
+     *
+     * @param port  端口，0表示随机空闲端口
+     * @param scale bench_seed的规模
+     * @return 数据库
+     */
+    public static EmbeddedMusicDb start(int port, int scale) throws ManagedProcessException, SQLException {
+        DBConfigurationBuilder builder = DBConfigurationBuilder.newBuilder();
+        builder.setPort(port);
+        builder.addArg("--character-set-server=utf8mb4");
+        builder.addArg("--collation-server=utf8mb4_general_ci");
+        //mariadbd默认拒绝以root运行，容器里常见
+        if ("root".equals(System.getProperty("user.name"))) {
+            builder.addArg("--user=root");
+        }
+        DBConfiguration configuration = builder.build();
+        DB db = DB.newEmbeddedDB(configuration);
+        db.start();
+        EmbeddedMusicDb musicDb = new EmbeddedMusicDb(db, configuration);
+        try {
+            db.createDB(DATABASE);
+            db.source("db/music.sql", "root", null, DATABASE);
+            try (Connection connection = musicDb.connect()) {
+                migrate(connection);
+            }
+            db.source("db/bench_seed.sql", "root", null, DATABASE);
+            try (Connection connection = musicDb.connect()) {
+                musicDb.seed(connection, scale);
+            }
+        } catch (ManagedProcessException | SQLException | RuntimeException e) {
+            musicDb.close();
+            throw e;
+        }
+        return musicDb;
+    }
+
+    /**
+     * JDBC地址
+     */
+    public String url() {
+        return configuration.getURL(DATABASE);
+    }
+
+    public Connection connect() throws SQLException {
+        return DriverManager.getConnection(url(), "root", "");
+    }
+
+    /**
+     * bench_seed生成的id范围
+     *
+     * @param column singer_ids、song_ids、list_ids、user_ids
+     * @return 范围的最小值和最大值
+     */
+    public int[] range(String column) {
+        String range = ranges.get(column);
+        if (range == null) {
+            throw new IllegalArgumentException("没有id范围：" + column);
+        }
+        String[] parts = range.split("-");
+        return new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+    }
+
+    @Override
+    public void close() {
+        try {
+            db.stop();
+        } catch (ManagedProcessException e) {
+            throw new IllegalStateException("关闭内嵌数据库失败", e);
+        }
+    }
+
+    private void seed(Connection connection, int scale) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("CALL bench_seed(?)")) {
+            ps.setInt(1, scale);
+            //存储过程最后一条select返回本次生成的id范围
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    for (String column : Arrays.asList("singer_ids", "song_ids", "list_ids", "user_ids")) {
+                        ranges.put(column, rs.getString(column));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 和SchemaMigrator一样按行尾分号拆分执行，并记录版本和脚本MD5
+     */
+    private static void migrate(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS `schema_version` (" +
+                    "`version` int(11) NOT NULL COMMENT '版本号'," +
+                    "`description` varchar(255) DEFAULT NULL COMMENT '说明'," +
+                    "`checksum` char(32) DEFAULT NULL COMMENT '脚本MD5'," +
+                    "`installed_on` datetime DEFAULT NULL COMMENT '执行时间'," +
+                    "PRIMARY KEY (`version`) USING BTREE" +
+                    ") ENGINE=InnoDB DEFAULT CHARSET=utf8 ROW_FORMAT=DYNAMIC COMMENT='数据库版本'");
+            for (String script : MIGRATIONS) {
+                String sql = read("db/migration/" + script);
+                for (String sqlStatement : split(sql)) {
+                    statement.execute(sqlStatement);
+                }
+                Matcher matcher = SCRIPT_NAME.matcher(script);
+                if (!matcher.matches()) {
+                    throw new IllegalStateException("迁移脚本命名错误：" + script);
+                }
+                try (PreparedStatement ps = connection.prepareStatement(
+                        "insert into schema_version (version, description, checksum, installed_on) values (?, ?, ?, now())")) {
+                    ps.setInt(1, Integer.parseInt(matcher.group(1)));
+                    ps.setString(2, matcher.group(2).replace('_', ' '));
+                    ps.setString(3, md5(sql));
+                    ps.executeUpdate();
+                }
+            }
+        }
+    }
+
+    private static List<String> split(String sql) {
+        List<String> statements = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (String line : sql.split("\r?\n")) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("--")) {
+                continue;
+            }
+            current.append(line).append('\n');
+            if (trimmed.endsWith(";")) {
+                String statement = current.toString().trim();
+                statements.add(statement.substring(0, statement.length() - 1));
+                current.setLength(0);
+            }
+        }
+        if (current.toString().trim().length() > 0) {
+            statements.add(current.toString().trim());
+        }
+        return statements;
+    }
+
+    private static String read(String resource) {
+        try (InputStream in = EmbeddedMusicDb.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException("找不到脚本：" + resource);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String md5(String sql) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(sql.getBytes(StandardCharsets.UTF_8));
+            return String.format("%032x", new BigInteger(1, digest));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = 3307;
+        int scale = 1;
+        Path argsFile = Paths.get("loadtest/results/bench-args.txt");
+        for (String arg : args) {
+            if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            } else if (arg.startsWith("--scale=")) {
+                scale = Integer.parseInt(arg.substring("--scale=".length()));
+            } else if (arg.startsWith("--args-file=")) {
+                argsFile = Paths.get(arg.substring("--args-file=".length()));
+            } else {
+                throw new IllegalArgumentException("未知参数：" + arg);
+            }
+        }
+
+        EmbeddedMusicDb musicDb = start(port, scale);
+        List<String> loadTestArgs = Arrays.asList(
+                "--song-ids=" + musicDb.ranges.get("song_ids"),
+                "--list-ids=" + musicDb.ranges.get("list_ids"),
+                "--user-ids=" + musicDb.ranges.get("user_ids"));
+        if (argsFile.getParent() != null) {
+            Files.createDirectories(argsFile.getParent());
+        }
+        Files.write(argsFile, loadTestArgs, StandardCharsets.UTF_8);
+
+        System.out.println("数据库已就绪：" + musicDb.url());
+        System.out.println("服务启动参数：--spring.datasource.url=" + musicDb.url().replace("jdbc:mariadb:", "jdbc:mysql:")
+                + "?useUnicode=true&characterEncoding=utf-8&serverTimezone=Asia/Shanghai"
+                + " --spring.datasource.username=root --spring.datasource.password=");
+        System.out.println("压测参数（已写入" + argsFile + "）：" + String.join(" ", loadTestArgs));
+        System.out.println("Ctrl+C 停止");
+
+        Runtime.getRuntime().addShutdownHook(new Thread(musicDb::close));
+        Thread.currentThread().join();
+    }
+
+}
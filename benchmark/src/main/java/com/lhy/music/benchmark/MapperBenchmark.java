@@ -0,0 +1,243 @@
+package com.lhy.music.benchmark;
+
+import com.lhy.music.cache.RankStats;
+import com.lhy.music.utils.PasswordUtils;
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.LocalCacheScope;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 热点mapper语句的基准测试
+ * 在内嵌MariaDB上执行 bench_seed(scale) 生成的数据，直接用MyBatis执行项目里的mapper语句，
+ * 每次调用随机取 bench_seed 生成范围内的id，迁移脚本加的索引是否生效可以从耗时上看出来
+ * 登录和歌单评分按服务现在的实现测：登录是getByUsername加PBKDF2校验，评分读启动时聚合的RankStats
+ * <p>
+ * 映射文件里的实体类型（com.lhy.music.entity.po.*）在这里换成HashMap，只测SQL和结果映射，不依赖服务的类
+ * MyBatis一级缓存设为STATEMENT，每次调用都会查库
+ * <pre>
+ * mvn -f benchmark/pom.xml package
+ * java -jar benchmark/target/benchmarks.jar MapperBenchmark -prof gc -p scale=10
+ * java -cp benchmark/target/benchmarks.jar com.lhy.music.benchmark.MapperBenchmark
+ * </pre>
+ * 第二种方式按默认参数运行并开启GC profiler，需要JDK 17及以上
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MapperBenchmark {
+
+    private static final String[] MAPPERS = {"SongMapper.xml", "ConsumerMapper.xml", "RankMapper.xml", "CollectMapper.xml"};
+
+    private static final String ENTITY_TYPE = "com\\.lhy\\.music\\.entity\\.po\\.\\w+";
+
+    private static final String USER_PREFIX = "bench_user_";
+
+    private static final String PASSWORD = "123456";
+
+    /**
+     * 准备数据用的语句，不属于服务的mapper
+     */
+    private static final String BENCHMARK_MAPPER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<!DOCTYPE mapper PUBLIC \"-//mybatis.org//DTD Mapper 3.0//EN\" \"http://mybatis.org/dtd/mybatis-3-mapper.dtd\">"
+            + "<mapper namespace=\"com.lhy.music.benchmark\">"
+            + "<update id=\"hashPasswords\">update consumer set password = #{password} where id between #{min} and #{max}</update>"
+            + "</mapper>";
+
+    @Param("1")
+    private int scale;
+
+    private EmbeddedMusicDb musicDb;
+
+    private SqlSessionFactory sqlSessionFactory;
+
+    private int[] singerIds;
+
+    private int[] songIds;
+
+    private int[] listIds;
+
+    private int[] userIds;
+
+    //和RankAggregates一样，启动时按歌单、分数汇总一次
+    private final Map<Integer, RankStats> rankStats = new ConcurrentHashMap<>();
+
+    /**
+     * 每个线程一个会话和随机数
+     */
+    @State(Scope.Thread)
+    public static class Session {
+
+        private SqlSession sqlSession;
+
+        private SplittableRandom random;
+
+        @Setup(Level.Trial)
+        public void open(MapperBenchmark benchmark) {
+            sqlSession = benchmark.sqlSessionFactory.openSession(true);
+            random = new SplittableRandom(42);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            sqlSession.close();
+        }
+
+        private int next(int[] range) {
+            return random.nextInt(range[0], range[1] + 1);
+        }
+
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        musicDb = EmbeddedMusicDb.start(0, scale);
+        singerIds = musicDb.range("singer_ids");
+        songIds = musicDb.range("song_ids");
+        listIds = musicDb.range("list_ids");
+        userIds = musicDb.range("user_ids");
+
+        PooledDataSource dataSource = new PooledDataSource("org.mariadb.jdbc.Driver", musicDb.url(), "root", "");
+        Configuration configuration = new Configuration(new Environment("benchmark", new JdbcTransactionFactory(), dataSource));
+        configuration.setLocalCacheScope(LocalCacheScope.STATEMENT);
+        for (String mapper : MAPPERS) {
+            parse(configuration, mapper, read(mapper).replaceAll(ENTITY_TYPE, "java.util.HashMap"));
+        }
+        parse(configuration, "benchmark", BENCHMARK_MAPPER);
+        sqlSessionFactory = new SqlSessionFactoryBuilder().build(configuration);
+
+        try (SqlSession sqlSession = sqlSessionFactory.openSession(true)) {
+            //bench_seed写的是明文密码，服务在首次登录时升级为PBKDF2；这里直接换成哈希，测升级后的登录
+            //所有用户共用一个哈希，校验耗时和各自加盐相同
+            Map<String, Object> params = new HashMap<>();
+            params.put("password", PasswordUtils.hash(PASSWORD));
+            params.put("min", userIds[0]);
+            params.put("max", userIds[1]);
+            sqlSession.update("com.lhy.music.benchmark.hashPasswords", params);
+
+            for (Map<String, Object> row : sqlSession.<Map<String, Object>>selectList(
+                    "com.lhy.music.mapper.RankMapper.selectScoreHistogram")) {
+                Integer songListId = ((Number) row.get("songListId")).intValue();
+                Number score = (Number) row.get("score");
+                rankStats.computeIfAbsent(songListId, RankStats::new)
+                        .add(score == null ? null : score.intValue(), ((Number) row.get("num")).longValue());
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        musicDb.close();
+    }
+
+    /**
+     * 歌手的歌曲，走idx_song_singer_id
+     */
+    @Benchmark
+    public List<Object> songOfSingerId(Session session) {
+        return session.sqlSession.selectList("com.lhy.music.mapper.SongMapper.songOfSingerId", session.next(singerIds));
+    }
+
+    /**
+     * 歌名模糊搜索，前导%无法走索引，全表扫描
+     */
+    @Benchmark
+    public List<Object> likeSongOfName(Session session) {
+        //bench_seed的歌名为 歌曲{序号}
+        int seq = session.next(songIds) - songIds[0] + 1;
+        return session.sqlSession.selectList("com.lhy.music.mapper.SongMapper.likeSongOfName", "%歌曲" + seq + "%");
+    }
+
+    /**
+     * 登录：按用户名查用户（走uk_consumer_username）再校验PBKDF2哈希，耗时主要在1万次迭代的哈希上
+     */
+    @Benchmark
+    public boolean login(Session session) {
+        Map<String, Object> consumer = session.sqlSession.selectOne(
+                "com.lhy.music.mapper.ConsumerMapper.getByUsername", USER_PREFIX + session.next(userIds));
+        return consumer != null && PasswordUtils.matches(PASSWORD, (String) consumer.get("password"));
+    }
+
+    /**
+     * 歌单平均分，和RankAggregates.rank一样读内存中的聚合，不访问数据库
+     */
+    @Benchmark
+    public int rankOfSongListId(Session session) {
+        RankStats stats = rankStats.get(session.next(listIds));
+        return stats == null ? 0 : stats.rank();
+    }
+
+    /**
+     * 是否已收藏，走uk_collect_user_song
+     */
+    @Benchmark
+    public Integer existSongId(Session session) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("userId", session.next(userIds));
+        params.put("songId", session.next(songIds));
+        return session.sqlSession.selectOne("com.lhy.music.mapper.CollectMapper.existSongId", params);
+    }
+
+    private static void parse(Configuration configuration, String resource, String xml) throws IOException {
+        try (InputStream in = new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))) {
+            new XMLMapperBuilder(in, configuration, resource, configuration.getSqlFragments()).parse();
+        }
+    }
+
+    private static String read(String resource) {
+        try (InputStream in = MapperBenchmark.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException("找不到映射文件：" + resource);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(MapperBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,718 @@
+package com.lhy.music.loadtest;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 端到端HTTP压测
+ * 按配置的比例模拟用户行为（浏览、搜索、播放、评论、收藏、登录），直接请求运行中的服务，
+ * 统计每个接口的吞吐量和p50/p99/p999延迟，结果保存为CSV，可以和之前的结果对比
+ * 接口返回HTTP 200但响应体的code不是成功码时（如已收藏、密码错误）也算错误，按code分别计数
+ * <p>
+ * 压测使用内嵌数据库，不连开发或线上库：先用 benchmark 模块的EmbeddedMusicDb启动MariaDB并执行bench_seed，
+ * 它会输出服务的数据源参数，并把本次生成的id范围写入 loadtest/results/bench-args.txt，
+ * 服务启动后再压测（bench_seed直接写库，不经过服务的缓存和索引）。开始前会检查id范围两端的数据是否存在
+ * 不需要编译，JDK 11及以上直接运行：
+ * <pre>
+ * java -cp benchmark/target/benchmarks.jar com.lhy.music.benchmark.EmbeddedMusicDb --scale=10
+ * java loadtest/MusicLoadTest.java @loadtest/results/bench-args.txt --threads=64 --duration=120 --label=baseline
+ * java loadtest/MusicLoadTest.java @loadtest/results/bench-args.txt ... --baseline=loadtest/results/20240325-220553-baseline.csv
+ * </pre>
+ * 参数（@文件 表示从文件读取参数，空白分隔，#开头的行忽略）：
+ * <ul>
+ * <li>--base-url    服务地址，默认 http://localhost:8080</li>
+ * <li>--threads     并发用户数，默认32</li>
+ * <li>--warmup      预热秒数，不计入结果，默认10</li>
+ * <li>--duration    统计秒数，默认60</li>
+ * <li>--rate        目标每秒行为数，0表示每个用户收到响应后立刻发下一次（闭环），默认0；
+ *                   大于0时按计划发送时间计算延迟，服务变慢时排队的时间也算在内</li>
+ * <li>--mix         行为比例，默认 browse:40,search:15,play:25,comment:8,collect:7,login:5</li>
+ * <li>--song-ids    歌曲id范围，默认1-2000；bench_seed在已有数据之后追加，id范围以EmbeddedMusicDb写入的参数文件为准</li>
+ * <li>--list-ids    歌单id范围，默认1-200</li>
+ * <li>--user-ids    用户id范围，默认1-1000</li>
+ * <li>--user-prefix 登录用户名前缀，用户名为 前缀+用户id，默认 bench_user_</li>
+ * <li>--password    登录密码，默认123456</li>
+ * <li>--ok-code     响应体code字段的成功值，默认200；没有code字段的响应按HTTP状态码判断</li>
+ * <li>--seed        随机种子，默认42，相同种子的行为序列相同</li>
+ * <li>--out         结果目录，默认 loadtest/results</li>
+ * <li>--label       结果文件名后缀，例如版本号</li>
+ * <li>--baseline    对比的历史结果文件</li>
+ * </ul>
+ */
+public class MusicLoadTest {
+
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    //R的code字段，只看JSON对象里出现的第一个code
+    private static final Pattern CODE = Pattern.compile("^\\s*\\{.*?\"code\"\\s*:\\s*\"?(-?\\d+)", Pattern.DOTALL);
+
+    /**
+     * 用户行为
+     */
+    enum Scenario {
+        //打开歌单：歌单歌曲、评分、其中一首歌曲详情
+        BROWSE,
+        //按歌名搜索
+        SEARCH,
+        //播放：歌曲详情、评论、上报播放
+        PLAY,
+        //发表评论
+        COMMENT,
+        //收藏歌曲
+        COLLECT,
+        //登录
+        LOGIN
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+
+        long now = System.nanoTime();
+        long measureStart = now + options.warmup * 1_000_000_000L;
+        long end = measureStart + options.duration * 1_000_000_000L;
+
+        System.out.printf("压测 %s，%d个并发用户，预热%ds，统计%ds，%s%n", options.baseUrl, options.threads,
+                options.warmup, options.duration, options.rate > 0 ? "目标" + options.rate + "次行为/秒" : "闭环");
+        System.out.println("行为比例：" + options.mix);
+        checkRanges(client, options);
+
+        List<Worker> workers = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(options.threads);
+        for (int i = 0; i < options.threads; i++) {
+            Worker worker = new Worker(i, options, client, now, measureStart, end, done);
+            workers.add(worker);
+            Thread thread = new Thread(worker, "load-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+
+        //合并各线程的样本
+        Map<String, Samples> merged = new TreeMap<>();
+        for (Worker worker : workers) {
+            for (Map.Entry<String, Samples> entry : worker.samples.entrySet()) {
+                merged.computeIfAbsent(entry.getKey(), k -> new Samples()).addAll(entry.getValue());
+            }
+        }
+        Samples total = new Samples();
+        for (Samples samples : merged.values()) {
+            total.addAll(samples);
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (Map.Entry<String, Samples> entry : merged.entrySet()) {
+            results.add(Result.of(entry.getKey(), entry.getValue(), options.duration));
+        }
+        results.add(Result.of("TOTAL", total, options.duration));
+
+        Map<String, Result> baseline = options.baseline == null ? null : Result.load(Paths.get(options.baseline));
+        print(results, baseline);
+        Path file = save(results, options);
+        System.out.println("结果已保存：" + file);
+    }
+
+    /**
+     * 检查id范围两端的数据是否存在，范围和库里的数据对不上时压测的大部分请求都是空结果，直接退出
+     */
+    private static void checkRanges(HttpClient client, Options options) throws IOException, InterruptedException {
+        List<String> missing = new ArrayList<>();
+        for (int id : new int[]{options.songIds.min, options.songIds.max}) {
+            if (!exists(client, options.baseUrl + "/song/detail?songId=" + id)) {
+                missing.add("歌曲" + id);
+            }
+        }
+        for (int id : new int[]{options.listIds.min, options.listIds.max}) {
+            if (!exists(client, options.baseUrl + "/songList/selectByPrimaryKey?id=" + id)) {
+                missing.add("歌单" + id);
+            }
+        }
+        for (int id : new int[]{options.userIds.min, options.userIds.max}) {
+            if (!exists(client, options.baseUrl + "/consumer/selectByPrimaryKey?id=" + id)) {
+                missing.add("用户" + id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            throw new IllegalStateException("id范围内的数据不存在：" + missing
+                    + "，请使用EmbeddedMusicDb生成的参数：@loadtest/results/bench-args.txt");
+        }
+    }
+
+    private static boolean exists(HttpClient client, String url) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofSeconds(30)).GET().build(), HttpResponse.BodyHandlers.ofString());
+        String body = response.body().trim();
+        return response.statusCode() < 400 && !body.isEmpty() && !"null".equals(body);
+    }
+
+    private static void print(List<Result> results, Map<String, Result> baseline) {
+        System.out.printf("%n%-36s %9s %9s %9s %9s %9s %9s %7s%n",
+                "endpoint", "count", "req/s", "p50(ms)", "p99(ms)", "p999(ms)", "max(ms)", "errors");
+        for (Result r : results) {
+            System.out.printf("%-36s %9d %9.1f %9.2f %9.2f %9.2f %9.2f %7d%n",
+                    r.endpoint, r.count, r.throughput, r.p50, r.p99, r.p999, r.max, r.errors);
+            Result base = baseline == null ? null : baseline.get(r.endpoint);
+            if (base != null) {
+                System.out.printf("%-36s %9s %+8.1f%% %+8.1f%% %+8.1f%% %+8.1f%%%n", "  vs baseline", "",
+                        change(base.throughput, r.throughput), change(base.p50, r.p50),
+                        change(base.p99, r.p99), change(base.p999, r.p999));
+            }
+        }
+        //错误按原因分开显示：code_x为响应体的code，http_x为状态码，io为连接失败或超时
+        for (Result r : results) {
+            if (!r.errorCodes.isEmpty() && !"TOTAL".equals(r.endpoint)) {
+                System.out.printf("%-36s %s%n", r.endpoint, r.errorCodes);
+            }
+        }
+    }
+
+    private static double change(double before, double after) {
+        return before == 0 ? 0 : (after - before) * 100 / before;
+    }
+
+    private static Path save(List<Result> results, Options options) throws IOException {
+        Path dir = Paths.get(options.out);
+        Files.createDirectories(dir);
+        String name = LocalDateTime.now().format(FILE_TIME) + (options.label.isEmpty() ? "" : "-" + options.label);
+        Path file = dir.resolve(name + ".csv");
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            out.println("# base-url=" + options.baseUrl);
+            out.println("# threads=" + options.threads + " warmup=" + options.warmup + " duration=" + options.duration
+                    + " rate=" + options.rate + " seed=" + options.seed);
+            out.println("# mix=" + options.mix);
+            out.println("# song-ids=" + options.songIds + " list-ids=" + options.listIds + " user-ids=" + options.userIds);
+            out.println(Result.HEADER);
+            for (Result r : results) {
+                out.println(r.toCsv());
+            }
+        }
+        return file;
+    }
+
+    /**
+     * 一个并发用户，按行为比例循环发请求，样本只在本线程内记录
+     */
+    static class Worker implements Runnable {
+
+        private final Options options;
+
+        private final HttpClient client;
+
+        private final SplittableRandom random;
+
+        private final long startAt;
+
+        private final long measureStart;
+
+        private final long end;
+
+        private final CountDownLatch done;
+
+        private final Map<String, Samples> samples = new HashMap<>();
+
+        //开环模式下本次行为的计划发送时间，由行为中的第一个请求使用
+        private long scheduled;
+
+        Worker(int index, Options options, HttpClient client, long startAt, long measureStart, long end,
+               CountDownLatch done) {
+            this.options = options;
+            this.client = client;
+            this.random = new SplittableRandom(options.seed * 31 + index);
+            this.startAt = startAt;
+            this.measureStart = measureStart;
+            this.end = end;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                long interval = options.rate > 0 ? (long) (1_000_000_000.0 * options.threads / options.rate) : 0;
+                //各线程错开第一次发送时间
+                long next = startAt + (interval > 0 ? random.nextLong(interval) : 0);
+                while (System.nanoTime() < end) {
+                    if (interval > 0) {
+                        long wait = next - System.nanoTime();
+                        if (wait > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                        scheduled = next;
+                        next += interval;
+                    }
+                    perform(options.mix.pick(random));
+                }
+            } finally {
+                done.countDown();
+            }
+        }
+
+        private void perform(Scenario scenario) {
+            int songId = options.songIds.pickHot(random);
+            int listId = options.listIds.pickHot(random);
+            int userId = options.userIds.pick(random);
+            switch (scenario) {
+                case BROWSE:
+                    get("/listSong/detail", "songListId", listId);
+                    get("/rank", "songListId", listId);
+                    get("/song/detail", "songId", songId);
+                    break;
+                case SEARCH:
+                    //歌名按 bench_seed 的 歌曲{序号} 生成，取前缀做模糊搜索
+                    String name = "歌曲" + (songId - options.songIds.min + 1);
+                    get("/song/likeSongOfName", "songName", name.substring(0, Math.max(3, name.length() - 1)));
+                    break;
+                case PLAY:
+                    get("/song/detail", "songId", songId);
+                    get("/comment/commentOfSongId", "songId", songId);
+                    post("/song/play", "songId", songId);
+                    break;
+                case COMMENT:
+                    post("/comment/add", "userId", userId, "type", 0, "songId", songId,
+                            "content", "压测评论" + random.nextInt(1_000_000));
+                    break;
+                case COLLECT:
+                    post("/collect/add", "userId", userId, "type", 0, "songId", songId);
+                    break;
+                case LOGIN:
+                    //bench_seed的用户名为 前缀+用户id
+                    post("/consumer/login", "username", options.userPrefix + userId, "password", options.password);
+                    break;
+                default:
+                    throw new IllegalStateException(scenario.name());
+            }
+        }
+
+        private void get(String path, Object... params) {
+            send("GET " + path, HttpRequest.newBuilder(URI.create(options.baseUrl + path + "?" + form(params)))
+                    .GET());
+        }
+
+        private void post(String path, Object... params) {
+            send("POST " + path, HttpRequest.newBuilder(URI.create(options.baseUrl + path))
+                    .header("Content-Type", "application/x-www-form-urlencoded")
+                    .POST(HttpRequest.BodyPublishers.ofString(form(params))));
+        }
+
+        private void send(String endpoint, HttpRequest.Builder builder) {
+            long sent = System.nanoTime();
+            long start = scheduled != 0 ? Math.min(scheduled, sent) : sent;
+            scheduled = 0;
+            String error;
+            try {
+                HttpResponse<String> response = client.send(builder.timeout(Duration.ofSeconds(30)).build(),
+                        HttpResponse.BodyHandlers.ofString());
+                error = error(response);
+            } catch (IOException e) {
+                error = "io";
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long finish = System.nanoTime();
+            //预热期间发出和统计结束后才完成的请求不计入
+            if (sent >= measureStart && finish <= end) {
+                samples.computeIfAbsent(endpoint, k -> new Samples()).add(finish - start, error);
+            }
+        }
+
+        /**
+         * 服务出错时也返回HTTP 200和R.error，所以先看响应体的code，没有code的响应（直接返回实体或列表）看状态码
+         *
+         * @return 错误原因，成功返回null
+         */
+        private String error(HttpResponse<String> response) {
+            if (response.statusCode() >= 400) {
+                return "http_" + response.statusCode();
+            }
+            Matcher matcher = CODE.matcher(response.body());
+            if (matcher.find() && Integer.parseInt(matcher.group(1)) != options.okCode) {
+                return "code_" + matcher.group(1);
+            }
+            return null;
+        }
+
+        private static String form(Object... params) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < params.length; i += 2) {
+                if (sb.length() > 0) {
+                    sb.append('&');
+                }
+                sb.append(params[i]).append('=')
+                        .append(URLEncoder.encode(String.valueOf(params[i + 1]), StandardCharsets.UTF_8));
+            }
+            return sb.toString();
+        }
+
+    }
+
+    /**
+     * 延迟样本（纳秒），保存全部样本，百分位是精确值
+     */
+    static class Samples {
+
+        private long[] values = new long[1024];
+
+        private int size;
+
+        private long errors;
+
+        //错误原因 -> 次数
+        private final Map<String, Long> errorCodes = new TreeMap<>();
+
+        void add(long nanos, String error) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = nanos;
+            if (error != null) {
+                errors++;
+                errorCodes.merge(error, 1L, Long::sum);
+            }
+        }
+
+        void addAll(Samples other) {
+            if (size + other.size > values.length) {
+                values = Arrays.copyOf(values, Math.max(size + other.size, values.length * 2));
+            }
+            System.arraycopy(other.values, 0, values, size, other.size);
+            size += other.size;
+            errors += other.errors;
+            other.errorCodes.forEach((code, count) -> errorCodes.merge(code, count, Long::sum));
+        }
+
+    }
+
+    /**
+     * 单个接口的统计结果
+     */
+    static class Result {
+
+        static final String HEADER = "endpoint,count,throughput,p50_ms,p99_ms,p999_ms,max_ms,errors,error_codes";
+
+        //没有error_codes列的旧结果文件
+        static final String LEGACY_HEADER = "endpoint,count,throughput,p50_ms,p99_ms,p999_ms,max_ms,errors";
+
+        String endpoint;
+
+        long count;
+
+        double throughput;
+
+        double p50;
+
+        double p99;
+
+        double p999;
+
+        double max;
+
+        long errors;
+
+        //错误原因和次数，如 code_2:31;http_500:1
+        String errorCodes = "";
+
+        static Result of(String endpoint, Samples samples, int seconds) {
+            long[] sorted = Arrays.copyOf(samples.values, samples.size);
+            Arrays.sort(sorted);
+            Result r = new Result();
+            r.endpoint = endpoint;
+            r.count = sorted.length;
+            r.throughput = (double) sorted.length / seconds;
+            r.p50 = percentile(sorted, 0.50);
+            r.p99 = percentile(sorted, 0.99);
+            r.p999 = percentile(sorted, 0.999);
+            r.max = sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6;
+            r.errors = samples.errors;
+            StringBuilder codes = new StringBuilder();
+            for (Map.Entry<String, Long> entry : samples.errorCodes.entrySet()) {
+                if (codes.length() > 0) {
+                    codes.append(';');
+                }
+                codes.append(entry.getKey()).append(':').append(entry.getValue());
+            }
+            r.errorCodes = codes.toString();
+            return r;
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(p * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+        }
+
+        String toCsv() {
+            return String.format(Locale.ROOT, "%s,%d,%.2f,%.3f,%.3f,%.3f,%.3f,%d,%s",
+                    endpoint, count, throughput, p50, p99, p999, max, errors, errorCodes);
+        }
+
+        /**
+         * 读取之前保存的结果
+         */
+        static Map<String, Result> load(Path file) throws IOException {
+            Map<String, Result> results = new HashMap<>();
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                if (line.startsWith("#") || line.equals(HEADER) || line.equals(LEGACY_HEADER) || line.isEmpty()) {
+                    continue;
+                }
+                String[] parts = line.split(",", -1);
+                Result r = new Result();
+                r.endpoint = parts[0];
+                r.count = Long.parseLong(parts[1]);
+                r.throughput = Double.parseDouble(parts[2]);
+                r.p50 = Double.parseDouble(parts[3]);
+                r.p99 = Double.parseDouble(parts[4]);
+                r.p999 = Double.parseDouble(parts[5]);
+                r.max = Double.parseDouble(parts[6]);
+                r.errors = Long.parseLong(parts[7]);
+                r.errorCodes = parts.length > 8 ? parts[8] : "";
+                results.put(r.endpoint, r);
+            }
+            return results;
+        }
+
+    }
+
+    /**
+     * id范围
+     */
+    static class IdRange {
+
+        final int min;
+
+        final int max;
+
+        IdRange(String spec) {
+            String[] parts = spec.split("-");
+            this.min = Integer.parseInt(parts[0].trim());
+            this.max = Integer.parseInt(parts[1].trim());
+            if (min > max) {
+                throw new IllegalArgumentException("id范围不合法：" + spec);
+            }
+        }
+
+        int size() {
+            return max - min + 1;
+        }
+
+        int pick(SplittableRandom random) {
+            return min + random.nextInt(size());
+        }
+
+        /**
+         * 按平方分布偏向id小的一端，和bench_seed中热门歌曲/歌单的分布一致
+         */
+        int pickHot(SplittableRandom random) {
+            double u = random.nextDouble();
+            return min + Math.min(size() - 1, (int) (u * u * size()));
+        }
+
+        @Override
+        public String toString() {
+            return min + "-" + max;
+        }
+
+    }
+
+    /**
+     * 行为比例
+     */
+    static class Mix {
+
+        private final Map<Scenario, Integer> weights = new LinkedHashMap<>();
+
+        private final Scenario[] table;
+
+        Mix(String spec) {
+            for (String item : spec.split(",")) {
+                String[] parts = item.split(":");
+                int weight = Integer.parseInt(parts[1].trim());
+                if (weight > 0) {
+                    weights.put(Scenario.valueOf(parts[0].trim().toUpperCase()), weight);
+                }
+            }
+            if (weights.isEmpty()) {
+                throw new IllegalArgumentException("行为比例为空：" + spec);
+            }
+            //按权重展开成查找表，抽样时取随机下标
+            List<Scenario> list = new ArrayList<>();
+            for (Map.Entry<Scenario, Integer> entry : weights.entrySet()) {
+                for (int i = 0; i < entry.getValue(); i++) {
+                    list.add(entry.getKey());
+                }
+            }
+            table = list.toArray(new Scenario[0]);
+        }
+
+        Scenario pick(SplittableRandom random) {
+            return table[random.nextInt(table.length)];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<Scenario, Integer> entry : weights.entrySet()) {
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(entry.getKey().name().toLowerCase()).append(':').append(entry.getValue());
+            }
+            return sb.toString();
+        }
+
+    }
+
+    /**
+     * 命令行参数
+     */
+    static class Options {
+
+        String baseUrl = "http://localhost:8080";
+
+        int threads = 32;
+
+        int warmup = 10;
+
+        int duration = 60;
+
+        double rate;
+
+        Mix mix = new Mix("browse:40,search:15,play:25,comment:8,collect:7,login:5");
+
+        IdRange songIds = new IdRange("1-2000");
+
+        IdRange listIds = new IdRange("1-200");
+
+        IdRange userIds = new IdRange("1-1000");
+
+        String userPrefix = "bench_user_";
+
+        String password = "123456";
+
+        int okCode = 200;
+
+        long seed = 42;
+
+        String out = "loadtest/results";
+
+        String label = "";
+
+        String baseline;
+
+        static Options parse(String[] args) throws IOException {
+            Options o = new Options();
+            for (String arg : expand(args)) {
+                int eq = arg.indexOf('=');
+                if (!arg.startsWith("--") || eq < 0) {
+                    throw new IllegalArgumentException("参数格式为 --name=value：" + arg);
+                }
+                String name = arg.substring(2, eq);
+                String value = arg.substring(eq + 1);
+                switch (name) {
+                    case "base-url":
+                        o.baseUrl = value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
+                        break;
+                    case "threads":
+                        o.threads = Integer.parseInt(value);
+                        break;
+                    case "warmup":
+                        o.warmup = Integer.parseInt(value);
+                        break;
+                    case "duration":
+                        o.duration = Integer.parseInt(value);
+                        break;
+                    case "rate":
+                        o.rate = Double.parseDouble(value);
+                        break;
+                    case "mix":
+                        o.mix = new Mix(value);
+                        break;
+                    case "song-ids":
+                        o.songIds = new IdRange(value);
+                        break;
+                    case "list-ids":
+                        o.listIds = new IdRange(value);
+                        break;
+                    case "user-ids":
+                        o.userIds = new IdRange(value);
+                        break;
+                    case "user-prefix":
+                        o.userPrefix = value;
+                        break;
+                    case "password":
+                        o.password = value;
+                        break;
+                    case "ok-code":
+                        o.okCode = Integer.parseInt(value);
+                        break;
+                    case "seed":
+                        o.seed = Long.parseLong(value);
+                        break;
+                    case "out":
+                        o.out = value;
+                        break;
+                    case "label":
+                        o.label = value;
+                        break;
+                    case "baseline":
+                        o.baseline = value;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("未知参数：" + arg);
+                }
+            }
+            return o;
+        }
+
+        /**
+         * 展开 @文件 参数，文件内的参数按空白分隔，#开头的行忽略；命令行上写在后面的参数覆盖前面的
+         */
+        private static List<String> expand(String[] args) throws IOException {
+            List<String> expanded = new ArrayList<>();
+            for (String arg : args) {
+                if (!arg.startsWith("@")) {
+                    expanded.add(arg);
+                    continue;
+                }
+                for (String line : Files.readAllLines(Paths.get(arg.substring(1)), StandardCharsets.UTF_8)) {
+                    String trimmed = line.trim();
+                    if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                        expanded.addAll(Arrays.asList(trimmed.split("\\s+")));
+                    }
+                }
+            }
+            return expanded;
+        }
+
+    }
+
+}
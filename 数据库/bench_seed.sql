@@ -0,0 +1,173 @@
+-- ----------------------------
+-- 基准测试/压测用的合成数据
+-- 在music.sql和migration建好的库上执行，按p_scale线性放大：
+--   歌手 100*scale，歌曲 2000*scale，歌单 200*scale（每个歌单最多30首），
+--   用户 1000*scale（每人最多收藏20首、评价2个歌单），
+--   每首歌曲10条评论，每个歌单5条评论，每首歌曲一条播放次数
+-- 歌手、歌曲、歌单的引用按平方分布偏向id小的一端，模拟少数热门歌曲/歌单
+-- 数据只追加在现有最大id之后，可以重复执行；随机数由CRC32(标签-序号)得到，同一scale生成的数据分布相同
+-- 用户名 bench_user_{用户id}，密码 123456（明文，首次登录时升级为PBKDF2）
+-- 执行出错时整体回滚，最后返回本次生成的id范围，可直接作为压测参数
+--
+-- 用法：
+--   source 数据库/bench_seed.sql;
+--   CALL bench_seed(10);
+-- ----------------------------
+DROP PROCEDURE IF EXISTS `bench_seed`;
+DELIMITER ;;
+CREATE PROCEDURE `bench_seed`(IN p_scale INT)
+BEGIN
+  DECLARE v_singers INT DEFAULT 100 * p_scale;
+  DECLARE v_songs INT DEFAULT 2000 * p_scale;
+  DECLARE v_lists INT DEFAULT 200 * p_scale;
+  DECLARE v_users INT DEFAULT 1000 * p_scale;
+  DECLARE v_max INT DEFAULT GREATEST(100 * p_scale, 2000 * p_scale, 200 * p_scale, 1000 * p_scale);
+  DECLARE v_count INT DEFAULT 1;
+  DECLARE v_singer0 INT;
+  DECLARE v_song0 INT;
+  DECLARE v_list0 INT;
+  DECLARE v_user0 INT;
+
+  -- 任何一条语句失败都回滚已插入的数据，不留下未提交的事务
+  DECLARE EXIT HANDLER FOR SQLEXCEPTION
+  BEGIN
+    ROLLBACK;
+    DROP TABLE IF EXISTS `bench_seq`;
+    RESIGNAL;
+  END;
+
+  SELECT IFNULL(MAX(`id`), 0) INTO v_singer0 FROM `singer`;
+  SELECT IFNULL(MAX(`id`), 0) INTO v_song0 FROM `song`;
+  SELECT IFNULL(MAX(`id`), 0) INTO v_list0 FROM `song_list`;
+  SELECT IFNULL(MAX(`id`), 0) INTO v_user0 FROM `consumer`;
+
+  -- 序号表 1..v_max，每次翻倍
+  DROP TABLE IF EXISTS `bench_seq`;
+  CREATE TABLE `bench_seq` (
+    `n` int(11) NOT NULL,
+    PRIMARY KEY (`n`)
+  ) ENGINE=InnoDB;
+  INSERT INTO `bench_seq` VALUES (1);
+  WHILE v_count < v_max DO
+    INSERT INTO `bench_seq` SELECT `n` + v_count FROM `bench_seq` WHERE `n` + v_count <= v_max;
+    SET v_count = v_count * 2;
+  END WHILE;
+
+  START TRANSACTION;
+
+  INSERT INTO `singer` (`id`, `name`, `sex`, `pic`, `birth`, `location`, `introduction`)
+  SELECT v_singer0 + s.`n`,
+         CONCAT('歌手', s.`n`),
+         s.`n` % 4,
+         '/img/singerPic/hhh.jpg',
+         DATE_ADD('1960-01-01', INTERVAL FLOOR(CRC32(CONCAT('birth-', s.`n`)) / 4294967296 * 15000) DAY),
+         ELT(1 + s.`n` % 5, '中国', '中国香港', '中国台湾', '韩国', '美国'),
+         CONCAT('合成数据歌手', s.`n`)
+  FROM `bench_seq` s
+  WHERE s.`n` <= v_singers;
+
+  INSERT INTO `song` (`id`, `singer_id`, `name`, `introduction`, `create_time`, `update_time`, `pic`, `lyric`, `url`)
+  SELECT v_song0 + s.`n`,
+         v_singer0 + 1 + FLOOR(POW(CRC32(CONCAT('singer-', s.`n`)) / 4294967296, 2) * v_singers),
+         CONCAT('歌曲', s.`n`),
+         CONCAT('专辑', s.`n` DIV 10),
+         NOW(),
+         NOW(),
+         '/img/songPic/tubiao.jpg',
+         REPEAT(CONCAT('[00:00.00]合成歌词', s.`n`, '\n'), 40),
+         '/song/bench.mp3'
+  FROM `bench_seq` s
+  WHERE s.`n` <= v_songs;
+
+  INSERT INTO `song_list` (`id`, `title`, `pic`, `introduction`, `style`)
+  SELECT v_list0 + s.`n`,
+         CONCAT('歌单', s.`n`),
+         '/img/songListPic/123.jpg',
+         CONCAT('合成数据歌单', s.`n`),
+         ELT(1 + s.`n` % 8, '华语', '粤语', '欧美', '日韩', '轻音乐', 'BGM', '乐器', '摇滚')
+  FROM `bench_seq` s
+  WHERE s.`n` <= v_lists;
+
+  -- 歌单歌曲、收藏、评价有唯一索引，重复抽中的组合跳过
+  INSERT IGNORE INTO `list_song` (`song_id`, `song_list_id`)
+  SELECT v_song0 + 1 + FLOOR(POW(CRC32(CONCAT('list-song-', s.`n`, '-', k.`n`)) / 4294967296, 2) * v_songs),
+         v_list0 + s.`n`
+  FROM `bench_seq` s
+  JOIN `bench_seq` k ON k.`n` <= 30
+  WHERE s.`n` <= v_lists;
+
+  INSERT INTO `consumer` (`id`, `username`, `password`, `sex`, `phone_num`, `email`, `birth`, `introduction`,
+                          `location`, `avator`, `create_time`, `update_time`)
+  SELECT v_user0 + s.`n`,
+         CONCAT('bench_user_', v_user0 + s.`n`),
+         '123456',
+         s.`n` % 2,
+         CONCAT('1', LPAD(v_user0 + s.`n`, 10, '0')),
+         CONCAT('bench', v_user0 + s.`n`, '@example.com'),
+         DATE_ADD('1980-01-01', INTERVAL FLOOR(CRC32(CONCAT('user-birth-', s.`n`)) / 4294967296 * 10000) DAY),
+         CONCAT('合成数据用户', s.`n`),
+         ELT(1 + s.`n` % 5, '北京', '上海', '广州', '深圳', '杭州'),
+         '/img/user.jpg',
+         NOW(),
+         NOW()
+  FROM `bench_seq` s
+  WHERE s.`n` <= v_users;
+
+  INSERT IGNORE INTO `collect` (`user_id`, `type`, `song_id`, `create_time`)
+  SELECT v_user0 + s.`n`,
+         0,
+         v_song0 + 1 + FLOOR(POW(CRC32(CONCAT('collect-', s.`n`, '-', k.`n`)) / 4294967296, 2) * v_songs),
+         NOW()
+  FROM `bench_seq` s
+  JOIN `bench_seq` k ON k.`n` <= 20
+  WHERE s.`n` <= v_users;
+
+  INSERT IGNORE INTO `rank` (`song_list_id`, `consumer_id`, `score`)
+  SELECT v_list0 + 1 + FLOOR(POW(CRC32(CONCAT('rank-', s.`n`, '-', k.`n`)) / 4294967296, 2) * v_lists),
+         v_user0 + s.`n`,
+         1 + CRC32(CONCAT('score-', s.`n`, '-', k.`n`)) % 5
+  FROM `bench_seq` s
+  JOIN `bench_seq` k ON k.`n` <= 2
+  WHERE s.`n` <= v_users;
+
+  -- 点赞数按四次方分布，少数评论很热
+  INSERT INTO `comment` (`user_id`, `type`, `song_id`, `content`, `create_time`, `up`)
+  SELECT v_user0 + 1 + FLOOR(CRC32(CONCAT('comment-user-', s.`n`, '-', k.`n`)) / 4294967296 * v_users),
+         0,
+         v_song0 + s.`n`,
+         CONCAT('歌曲评论', s.`n`, '-', k.`n`),
+         NOW(),
+         FLOOR(POW(CRC32(CONCAT('comment-up-', s.`n`, '-', k.`n`)) / 4294967296, 4) * 1000)
+  FROM `bench_seq` s
+  JOIN `bench_seq` k ON k.`n` <= 10
+  WHERE s.`n` <= v_songs;
+
+  INSERT INTO `comment` (`user_id`, `type`, `song_list_id`, `content`, `create_time`, `up`)
+  SELECT v_user0 + 1 + FLOOR(CRC32(CONCAT('list-comment-user-', s.`n`, '-', k.`n`)) / 4294967296 * v_users),
+         1,
+         v_list0 + s.`n`,
+         CONCAT('歌单评论', s.`n`, '-', k.`n`),
+         NOW(),
+         FLOOR(POW(CRC32(CONCAT('list-comment-up-', s.`n`, '-', k.`n`)) / 4294967296, 4) * 1000)
+  FROM `bench_seq` s
+  JOIN `bench_seq` k ON k.`n` <= 5
+  WHERE s.`n` <= v_lists;
+
+  INSERT IGNORE INTO `song_play` (`song_id`, `play_count`, `update_time`)
+  SELECT v_song0 + s.`n`,
+         FLOOR(POW(CRC32(CONCAT('play-', s.`n`)) / 4294967296, 3) * 100000),
+         NOW()
+  FROM `bench_seq` s
+  WHERE s.`n` <= v_songs;
+
+  COMMIT;
+
+  DROP TABLE IF EXISTS `bench_seq`;
+
+  SELECT CONCAT(v_singer0 + 1, '-', v_singer0 + v_singers) AS singer_ids,
+         CONCAT(v_song0 + 1, '-', v_song0 + v_songs) AS song_ids,
+         CONCAT(v_list0 + 1, '-', v_list0 + v_lists) AS list_ids,
+         CONCAT(v_user0 + 1, '-', v_user0 + v_users) AS user_ids;
+END
+;;
+DELIMITER ;
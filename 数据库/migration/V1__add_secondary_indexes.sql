@@ -0,0 +1,32 @@
+-- ----------------------------
+-- 为mapper中的查询条件补充二级索引
+-- ----------------------------
+
+-- 歌曲：按歌手、按歌名查询
+ALTER TABLE `song`
+  ADD INDEX `idx_song_singer_id` (`singer_id`) USING BTREE,
+  ADD INDEX `idx_song_name` (`name`) USING BTREE;
+
+-- 评论：按歌曲、按歌单查询
+ALTER TABLE `comment`
+  ADD INDEX `idx_comment_song_id` (`song_id`) USING BTREE,
+  ADD INDEX `idx_comment_song_list_id` (`song_list_id`) USING BTREE;
+
+-- 收藏：清理重复收藏后，同一用户同一歌曲只能收藏一次
+DELETE c1 FROM `collect` c1
+  JOIN `collect` c2 ON c1.user_id = c2.user_id AND c1.song_id = c2.song_id AND c1.id > c2.id;
+ALTER TABLE `collect`
+  ADD UNIQUE INDEX `uk_collect_user_song` (`user_id`, `song_id`) USING BTREE;
+
+-- 歌单歌曲：清理重复歌曲后，同一歌单内歌曲不重复
+DELETE l1 FROM `list_song` l1
+  JOIN `list_song` l2 ON l1.song_list_id = l2.song_list_id AND l1.song_id = l2.song_id AND l1.id > l2.id;
+ALTER TABLE `list_song`
+  ADD UNIQUE INDEX `uk_list_song_list_song` (`song_list_id`, `song_id`) USING BTREE;
+
+-- 前台用户：重名用户改名为 用户名_id（不删除，用户的收藏、评论仍然有效）后，用户名唯一
+UPDATE `consumer` c1
+  JOIN `consumer` c2 ON c1.username = c2.username AND c1.id > c2.id
+  SET c1.username = CONCAT(c1.username, '_', c1.id);
+ALTER TABLE `consumer`
+  ADD UNIQUE INDEX `uk_consumer_username` (`username`) USING BTREE;
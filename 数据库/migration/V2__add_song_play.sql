@@ -0,0 +1,10 @@
+-- ----------------------------
+-- 歌曲播放次数，由播放事件批量累加
+-- ----------------------------
+CREATE TABLE IF NOT EXISTS `song_play` (
+  `song_id` int(11) NOT NULL COMMENT '歌曲id',
+  `play_count` bigint(20) NOT NULL DEFAULT '0' COMMENT '播放次数',
+  `update_time` datetime DEFAULT NULL COMMENT '更新时间',
+  PRIMARY KEY (`song_id`) USING BTREE,
+  KEY `idx_song_play_count` (`play_count`) USING BTREE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 ROW_FORMAT=DYNAMIC COMMENT='歌曲播放次数';
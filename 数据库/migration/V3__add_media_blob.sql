@@ -0,0 +1,9 @@
+-- ----------------------------
+-- 按内容寻址存储的媒体文件引用计数，引用数为0时删除文件
+-- ----------------------------
+CREATE TABLE IF NOT EXISTS `media_blob` (
+  `path` varchar(255) NOT NULL COMMENT '相对文件地址',
+  `ref_count` int(11) NOT NULL DEFAULT '0' COMMENT '引用次数',
+  `create_time` datetime DEFAULT NULL COMMENT '创建时间',
+  PRIMARY KEY (`path`) USING BTREE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 ROW_FORMAT=DYNAMIC COMMENT='媒体文件引用计数';
@@ -0,0 +1,5 @@
+-- ----------------------------
+-- 歌单歌曲按歌单分页：(song_list_id, id) 索引，where song_list_id = ? and id > ? order by id 不需要排序
+-- ----------------------------
+ALTER TABLE `list_song`
+  ADD INDEX `idx_list_song_list_id` (`song_list_id`, `id`) USING BTREE;
@@ -0,0 +1,9 @@
+-- ----------------------------
+-- 评论按最新/最热分页
+-- up改为非空，最热排序 (up desc, id desc) 的游标条件不需要处理null
+-- ----------------------------
+UPDATE `comment` SET `up` = 0 WHERE `up` IS NULL;
+ALTER TABLE `comment`
+  MODIFY COLUMN `up` int(11) NOT NULL DEFAULT '0' COMMENT '评论点赞数',
+  ADD INDEX `idx_comment_song_id_up` (`song_id`, `up`, `id`) USING BTREE,
+  ADD INDEX `idx_comment_song_list_id_up` (`song_list_id`, `up`, `id`) USING BTREE;